@@ -1,18 +1,25 @@
 package com.procure.thg.cockroachdb;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.logging.Logger;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
 
 public class App {
 
@@ -30,27 +37,71 @@ public class App {
     private static final String AWS_ENDPOINT_URL = "AWS_ENDPOINT_URL";
     private static final String COPY_METADATA = "COPY_METADATA";
     private static final String COPY_MODIFIED = "COPY_MODIFIED";
+    private static final String CLEANER_HEAD_WINDOW_SECONDS = "CLEANER_HEAD_WINDOW_SECONDS";
+    private static final String CLEANER_CONCURRENCY = "CLEANER_CONCURRENCY";
+    private static final String CLEANER_MODE = "CLEANER_MODE";
+    private static final String RETENTION_KEEP_LAST = "RETENTION_KEEP_LAST";
+    private static final String RETENTION_PREFIX_DEPTH = "RETENTION_PREFIX_DEPTH";
+    private static final String LISTING_SHARD_DEPTH = "LISTING_SHARD_DEPTH";
+    private static final String LISTING_CONCURRENCY = "LISTING_CONCURRENCY";
+    private static final String CHECKPOINT_FILE = "CHECKPOINT_FILE";
+    private static final String CHECKPOINT_KEY = "CHECKPOINT_KEY";
+    private static final String CHECKPOINT_INTERVAL_SECONDS = "CHECKPOINT_INTERVAL_SECONDS";
+    private static final String COPY_CONCURRENCY = "COPY_CONCURRENCY";
+    private static final String COPY_LISTING_DIFF = "COPY_LISTING_DIFF";
+    private static final String COPY_PART_SIZE_MB = "COPY_PART_SIZE_MB";
+    private static final String COPY_PART_CONCURRENCY = "COPY_PART_CONCURRENCY";
+    private static final String COPY_PART_ATTEMPTS = "COPY_PART_ATTEMPTS";
+    private static final String COPY_RANGED_GET = "COPY_RANGED_GET";
+    private static final String COPY_SERVER_SIDE = "COPY_SERVER_SIDE";
+    private static final String COPY_BUFFER_BUDGET_MB = "COPY_BUFFER_BUDGET_MB";
+    private static final String COPY_BUFFER_CHUNK_KB = "COPY_BUFFER_CHUNK_KB";
+    private static final String COPY_SPILL_DIR = "COPY_SPILL_DIR";
+    private static final String COPY_SPILL_ABOVE_MB = "COPY_SPILL_ABOVE_MB";
+    private static final String COPY_VERIFY = "COPY_VERIFY";
+    private static final String ENGINE = "ENGINE";
+    private static final String ASYNC_MAX_IN_FLIGHT = "ASYNC_MAX_IN_FLIGHT";
+    private static final String ASYNC_BUFFER_BUDGET_MB = "ASYNC_BUFFER_BUDGET_MB";
+    private static final String SOURCE_HTTP_CLIENT = "SOURCE_HTTP_CLIENT";
+    private static final String TARGET_HTTP_CLIENT = "TARGET_HTTP_CLIENT";
+    private static final String CRT_TARGET_THROUGHPUT_GBPS = "CRT_TARGET_THROUGHPUT_GBPS";
+    private static final String COPY_METADATA_CONCURRENCY = "COPY_METADATA_CONCURRENCY";
+    private static final String COPY_METADATA_MAX_RPS = "COPY_METADATA_MAX_RPS";
+    private static final String COPY_TARGET_INDEX = "COPY_TARGET_INDEX";
+    private static final String COPY_TARGET_INDEX_RECONCILE_HOURS = "COPY_TARGET_INDEX_RECONCILE_HOURS";
+    private static final String WATERMARK_FILE = "WATERMARK_FILE";
+    private static final String WATERMARK_KEY = "WATERMARK_KEY";
+    private static final String KEY_DATE_PATTERN = "KEY_DATE_PATTERN";
+    // The async engine lists the whole folder in one pass and copies without these
+    private static final List<String> ASYNC_COPY_UNSUPPORTED = List.of(COPY_SERVER_SIDE, COPY_LISTING_DIFF,
+            COPY_TARGET_INDEX, WATERMARK_FILE, WATERMARK_KEY, CHECKPOINT_FILE, CHECKPOINT_KEY, KEY_DATE_PATTERN,
+            LISTING_SHARD_DEPTH);
+    // ApacheHttpClient's default pool size
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
 
     public static void main(String[] args) {
         S3Client sourceClient = null;
         S3Client targetClient = null;
         try {
-            LOGGER.log(INFO, "Initialising source S3 client...");
-            sourceClient = S3Client.builder()
-                    .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                    .endpointOverride(getEndpointUri())
-                    .region(REGION)
-                    .forcePathStyle(true)
-                    .httpClientBuilder(ApacheHttpClient.builder()
-                            .socketTimeout(Duration.ofSeconds(6000))
-                            .connectionTimeout(Duration.ofSeconds(6000)))
-                    .build();
+            // Each copy worker holds a source and a target connection per part in flight
+            final int copyConcurrency = (int) getOptionalLong(COPY_CONCURRENCY, 1);
+            // A parallel metadata sync has two HEADs in flight per key
+            final int metadataConcurrency = (int) getOptionalLong(COPY_METADATA_CONCURRENCY, 1);
+            final int maxConnections = Math.max(DEFAULT_MAX_CONNECTIONS, Math.max(metadataConcurrency * 2,
+                    copyConcurrency * (int) getOptionalLong(COPY_PART_CONCURRENCY, 4) * 2));
+
+            final S3ClientFactory sourceFactory = createClientFactory("source",
+                    EnvironmentVariableCredentialsProvider.create(), getEndpointUri(), SOURCE_HTTP_CLIENT);
+            sourceClient = sourceFactory.syncClient(maxConnections);
 
             String enableMoveStr = System.getenv(ENABLE_MOVE);
             boolean enableMove = Boolean.parseBoolean(enableMoveStr);
 
             long thresholdSeconds = getThresholdSeconds();
             String folder = getFolderPrefix();
+            BucketLister lister = new BucketLister(sourceClient,
+                    (int) getOptionalLong(LISTING_SHARD_DEPTH, 0),
+                    (int) getOptionalLong(LISTING_CONCURRENCY, 8));
 
             if (enableMove) {
                 String targetAccessKey = System.getenv(TARGET_AWS_ACCESS_KEY_ID);
@@ -65,28 +116,78 @@ public class App {
                     throw new IllegalArgumentException("Required target environment variables (TARGET_AWS_ACCESS_KEY_ID, TARGET_AWS_SECRET_ACCESS_KEY, TARGET_AWS_ENDPOINT_URL, TARGET_BUCKET_NAME) must be set when ENABLE_MOVE is true");
                 }
 
-                LOGGER.log(INFO, "Initialising target S3 client...");
-                targetClient = S3Client.builder()
-                        .credentialsProvider(StaticCredentialsProvider.create(
-                                AwsBasicCredentials.create(targetAccessKey, targetSecretKey)))
-                        .endpointOverride(URI.create(targetEndpoint))
-                        .forcePathStyle(true)
-                        .region(REGION)
-                        .httpClientBuilder(ApacheHttpClient.builder()
-                                .socketTimeout(Duration.ofSeconds(6000))
-                                .connectionTimeout(Duration.ofSeconds(6000)))
-                        .build();
+                final S3ClientFactory targetFactory = createClientFactory("target", StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(targetAccessKey, targetSecretKey)), URI.create(targetEndpoint),
+                        TARGET_HTTP_CLIENT);
+                targetClient = targetFactory.syncClient(maxConnections);
 
+                final var spillDirectory = System.getenv(COPY_SPILL_DIR);
+                final long spillAboveMb = getOptionalLong(COPY_SPILL_ABOVE_MB, -1);
+                final boolean verify = Boolean.parseBoolean(System.getenv(COPY_VERIFY));
+                final var throughputMeter = new ThroughputMeter(String.format("source %s, target %s",
+                        sourceFactory.backend().label(), targetFactory.backend().label()));
                 S3Copier copier = new S3Copier(sourceClient, System.getenv("BUCKET_NAME"), folder,
-                        targetClient, targetBucket, targetFolder, copyModified);
+                        targetClient, targetBucket, targetFolder, copyModified)
+                        .withLister(pruneByDate(lister, thresholdSeconds, DatePartitionFilter.Direction.NEWER))
+                        .withCopyConcurrency(copyConcurrency)
+                        .withListingDiff(Boolean.parseBoolean(System.getenv(COPY_LISTING_DIFF)))
+                        .withMultipartUploader(new MultipartUploader(targetClient,
+                                getOptionalLong(COPY_PART_SIZE_MB, 64) * 1024 * 1024,
+                                (int) getOptionalLong(COPY_PART_CONCURRENCY, 4),
+                                (int) getOptionalLong(COPY_PART_ATTEMPTS, 3))
+                                .withPartChecksums(verify))
+                        .withChecksumVerification(verify)
+                        .withThroughputMeter(throughputMeter)
+                        .withRangedGet(Boolean.parseBoolean(System.getenv(COPY_RANGED_GET)))
+                        .withServerSideCopy(Boolean.parseBoolean(System.getenv(COPY_SERVER_SIDE)))
+                        .withBufferPool(createBufferPool())
+                        .withSpill(Path.of(spillDirectory != null ? spillDirectory : System.getProperty("java.io.tmpdir")),
+                                spillAboveMb < 0 ? -1 : spillAboveMb * 1024 * 1024)
+                        .withCheckpoint(createCheckpoint(targetClient, targetBucket, String.join("|",
+                                copyMetadata ? "sync-metadata" : "copy", System.getenv("BUCKET_NAME"), folder,
+                                Long.toString(thresholdSeconds), targetBucket, targetFolder,
+                                Boolean.toString(copyModified), listingParameters())));
                 if (copyMetadata) {
-                    copier.syncMetaDataRecentObjects(thresholdSeconds);
+                    final long maxRequestsPerSecond = getOptionalLong(COPY_METADATA_MAX_RPS, 0);
+                    copier.withMetadataConcurrency(metadataConcurrency)
+                            .withMetadataRateLimiter(maxRequestsPerSecond > 0 ? new RateLimiter(maxRequestsPerSecond) : null)
+                            .syncMetaDataRecentObjects(thresholdSeconds);
+                } else if (isAsyncEngine()) {
+                    warnIgnoredSettings(ASYNC_COPY_UNSUPPORTED);
+                    // Objects too large to buffer go through the synchronous copier, which must stream them too
+                    copier.withServerSideCopy(false);
+                    final int maxInFlight = (int) getOptionalLong(ASYNC_MAX_IN_FLIGHT, 256);
+                    try (S3AsyncClient sourceAsyncClient = sourceFactory.asyncClient(maxInFlight);
+                         S3AsyncClient targetAsyncClient = targetFactory.asyncClient(maxInFlight)) {
+                        final var asyncCopier = new AsyncS3Copier(sourceAsyncClient, System.getenv("BUCKET_NAME"), folder,
+                                targetAsyncClient, targetBucket, targetFolder, copyModified)
+                                .withMaxInFlight(maxInFlight)
+                                .withBufferBudget(getOptionalLong(ASYNC_BUFFER_BUDGET_MB, 512) * 1024 * 1024)
+                                .withChecksumVerification(verify)
+                                .withThroughputMeter(throughputMeter)
+                                .withLargeObjectCopier(copier, copyConcurrency);
+                        // CRT splits large transfers into parallel parts itself, so they only need a file in between
+                        if (targetFactory.backend() == S3ClientFactory.Backend.CRT) {
+                            asyncCopier.withLargeObjectSpill(Path.of(spillDirectory != null
+                                    ? spillDirectory : System.getProperty("java.io.tmpdir")));
+                        }
+                        asyncCopier.copyRecentObjects(thresholdSeconds);
+                    }
                 } else {
-                    copier.copyRecentObjects(thresholdSeconds);
+                    try (TargetIndex targetIndex = openTargetIndex(targetBucket, targetFolder)) {
+                        if (targetIndex != null) {
+                            copier.withTargetIndex(targetIndex,
+                                    Duration.ofHours(getOptionalLong(COPY_TARGET_INDEX_RECONCILE_HOURS, 24)));
+                        }
+                        copier.withWatermark(createWatermark(targetClient, targetBucket, String.join("|",
+                                        System.getenv("BUCKET_NAME"), folder, Long.toString(thresholdSeconds),
+                                        targetBucket, targetFolder)), new DatePartitionFilter(keyDatePattern(),
+                                        Instant.now().minusSeconds(thresholdSeconds), DatePartitionFilter.Direction.NEWER))
+                                .copyRecentObjects(thresholdSeconds);
+                    }
                 }
             } else {
-                S3Cleaner cleaner = new S3Cleaner(sourceClient, thresholdSeconds, folder);
-                cleaner.cleanOldObjects();
+                runCleaner(sourceClient, sourceFactory, lister, thresholdSeconds, folder);
             }
         } catch (Exception e) {
             LOGGER.log(SEVERE, "Application failed", e);
@@ -102,6 +203,111 @@ public class App {
         }
     }
 
+    private static void runCleaner(final S3Client sourceClient, final S3ClientFactory sourceFactory,
+                                   final BucketLister lister,
+                                   final long thresholdSeconds, final String folder) {
+        final var bucket = System.getenv("BUCKET_NAME");
+        final var mode = System.getenv(CLEANER_MODE) != null ? System.getenv(CLEANER_MODE) : "objects";
+        LOGGER.log(INFO, "Cleaner mode: {0}", mode);
+        if (isAsyncEngine() && !mode.equals("objects")) {
+            LOGGER.log(INFO, "Cleaner mode {0} has no async engine, using the synchronous one", mode);
+        }
+        switch (mode) {
+            case "objects" -> {
+                if (isAsyncEngine()) {
+                    final int maxInFlight = (int) getOptionalLong(ASYNC_MAX_IN_FLIGHT, 256);
+                    try (S3AsyncClient asyncClient = sourceFactory.asyncClient(maxInFlight)) {
+                        new AsyncS3Cleaner(asyncClient, bucket, thresholdSeconds, folder)
+                                .withHeadWindowSeconds(getOptionalLong(CLEANER_HEAD_WINDOW_SECONDS, -1))
+                                .withMaxInFlight(maxInFlight)
+                                .cleanOldObjects();
+                    }
+                } else {
+                    new S3Cleaner(sourceClient, thresholdSeconds, folder)
+                            .withLister(pruneByDate(lister, thresholdSeconds, DatePartitionFilter.Direction.OLDER))
+                            .withCheckpoint(createCheckpoint(sourceClient, bucket, String.join("|",
+                                    "clean", bucket, folder, Long.toString(thresholdSeconds), listingParameters())))
+                            .withHeadWindowSeconds(getOptionalLong(CLEANER_HEAD_WINDOW_SECONDS, -1))
+                            .withConcurrency((int) getOptionalLong(CLEANER_CONCURRENCY, 1))
+                            .cleanOldObjects();
+                }
+            }
+            case "versions" -> new S3VersionCleaner(sourceClient, bucket, thresholdSeconds, folder)
+                    .cleanOldVersions();
+            case "multipart" -> new S3MultipartReaper(sourceClient, bucket, thresholdSeconds, folder)
+                    .withConcurrency((int) getOptionalLong(CLEANER_CONCURRENCY, 1))
+                    .abortStaleUploads();
+            case "retention" -> {
+                final long keepLast = getOptionalLong(RETENTION_KEEP_LAST, -1);
+                if (keepLast < 0) {
+                    throw new IllegalArgumentException(RETENTION_KEEP_LAST + " must be set when " + CLEANER_MODE + " is retention");
+                }
+                new S3RetentionCleaner(sourceClient, bucket, thresholdSeconds, folder, (int) keepLast,
+                        (int) getOptionalLong(RETENTION_PREFIX_DEPTH, 1))
+                        .withLister(lister)
+                        .cleanExcessGroups();
+            }
+            case "backups" -> new S3BackupCleaner(sourceClient, bucket, thresholdSeconds, folder)
+                    .withLister(lister)
+                    .cleanOldChains();
+            default -> throw new IllegalArgumentException("Unknown " + CLEANER_MODE + ": " + mode);
+        }
+    }
+
+    // ENGINE=async moves the copy mode and the objects cleaner onto non-blocking clients
+    // Settings left at false or 0 change nothing, so only the ones that would take effect are reported
+    private static void warnIgnoredSettings(final List<String> names) {
+        for (String name : names) {
+            final var value = System.getenv(name);
+            if (value != null && !value.isEmpty() && !value.equalsIgnoreCase("false") && !value.equals("0")) {
+                LOGGER.log(WARNING, "{0} is not supported by the async engine and is ignored", name);
+            }
+        }
+    }
+
+    private static boolean isAsyncEngine() {
+        final var engine = System.getenv(ENGINE);
+        if (engine == null || engine.isEmpty() || engine.equals("sync")) {
+            return false;
+        }
+        if (engine.equals("async")) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown " + ENGINE + ": " + engine);
+    }
+
+    // The synchronous engine only runs on apache; the async engine runs on netty (the default) or crt
+    private static S3ClientFactory createClientFactory(final String side, final AwsCredentialsProvider credentialsProvider,
+                                                       final URI endpoint, final String backendVariable) {
+        final boolean async = isAsyncEngine();
+        final var backend = S3ClientFactory.Backend.parse(System.getenv(backendVariable),
+                async ? S3ClientFactory.Backend.NETTY : S3ClientFactory.Backend.APACHE);
+        if (async == (backend == S3ClientFactory.Backend.APACHE)) {
+            throw new IllegalArgumentException(backendVariable + "=" + backend.label() + " cannot be used with "
+                    + ENGINE + "=" + (async ? "async" : "sync"));
+        }
+        final var crtThroughput = System.getenv(CRT_TARGET_THROUGHPUT_GBPS);
+        return new S3ClientFactory(side, credentialsProvider, endpoint, REGION, backend)
+                .withTargetThroughputGbps(crtThroughput != null && !crtThroughput.isEmpty()
+                        ? Double.parseDouble(crtThroughput) : 10.0)
+                .withMinimumPartSize(getOptionalLong(COPY_PART_SIZE_MB, 64) * 1024 * 1024);
+    }
+
+    private static BufferPool createBufferPool() {
+        // Off by default: the pool is direct memory on top of the heap, which the JVM caps at -Xmx unless told otherwise
+        final long budgetMb = getOptionalLong(COPY_BUFFER_BUDGET_MB, 0);
+        if (budgetMb <= 0) {
+            return null;
+        }
+        // Every buffered copy must fit, and those are objects of up to 100MB
+        if (budgetMb < 100) {
+            throw new IllegalArgumentException(COPY_BUFFER_BUDGET_MB + " must be 0 or at least 100");
+        }
+        final var pool = new BufferPool(budgetMb * 1024 * 1024, (int) getOptionalLong(COPY_BUFFER_CHUNK_KB, 1024) * 1024);
+        LOGGER.log(INFO, "Buffered copies share a budget of {0} MB", budgetMb);
+        return pool;
+    }
+
     private static URI getEndpointUri() {
         final var uri = System.getenv(AWS_ENDPOINT_URL);
         if (uri == null || uri.isEmpty()) {
@@ -127,6 +333,90 @@ public class App {
         return Long.parseLong(thresholdEnv);
     }
 
+    // Returns null when checkpointing is not configured. The object variant is kept in the bucket being written to
+    private static Checkpoint createCheckpoint(final S3Client client, final String bucket, final String fingerprint) {
+        final var file = System.getenv(CHECKPOINT_FILE);
+        final var key = System.getenv(CHECKPOINT_KEY);
+        final var interval = Duration.ofSeconds(getOptionalLong(CHECKPOINT_INTERVAL_SECONDS, 60));
+        if (file != null && !file.isEmpty()) {
+            LOGGER.log(INFO, "Checkpointing progress to file {0}", file);
+            return new Checkpoint(Checkpoint.localFile(Path.of(file)), fingerprint, interval);
+        }
+        if (key != null && !key.isEmpty()) {
+            LOGGER.log(INFO, "Checkpointing progress to object {0}/{1}", new Object[]{bucket, key});
+            return new Checkpoint(Checkpoint.s3Object(client, bucket, key), fingerprint, interval);
+        }
+        return null;
+    }
+
+    // Saved tokens belong to the shards and date prefixes of one listing, so a checkpoint only resumes the same split
+    private static String listingParameters() {
+        return String.join("|", Long.toString(getOptionalLong(LISTING_SHARD_DEPTH, 0)),
+                String.valueOf(System.getenv(KEY_DATE_PATTERN)));
+    }
+
+    // With KEY_DATE_PATTERN, only the date prefixes that can hold objects on the wanted side of the threshold are listed
+    private static BucketLister pruneByDate(final BucketLister lister, final long thresholdSeconds,
+                                            final DatePartitionFilter.Direction direction) {
+        final var pattern = System.getenv(KEY_DATE_PATTERN);
+        if (pattern == null || pattern.isEmpty()) {
+            return lister;
+        }
+        final var filter = new DatePartitionFilter(pattern, Instant.now().minusSeconds(thresholdSeconds), direction);
+        LOGGER.log(INFO, "Listing only {0} date partitions of pattern {1}",
+                new Object[]{direction.name().toLowerCase(), pattern});
+        return lister.withPrefixFilter(filter, filter.depth());
+    }
+
+    // CockroachDB's YYYY/MM/DD-HHMMSS.ss full backup paths unless KEY_DATE_PATTERN says otherwise
+    private static String keyDatePattern() {
+        final var pattern = System.getenv(KEY_DATE_PATTERN);
+        return pattern != null && !pattern.isEmpty() ? pattern : "yyyy/MM/dd";
+    }
+
+    // Returns null when no watermark is configured. The object variant is kept in the target bucket
+    private static Watermark createWatermark(final S3Client targetClient, final String targetBucket,
+                                             final String fingerprint) {
+        final var file = System.getenv(WATERMARK_FILE);
+        final var key = System.getenv(WATERMARK_KEY);
+        if (file != null && !file.isEmpty()) {
+            LOGGER.log(INFO, "Keeping the listing watermark in file {0}", file);
+            return new Watermark(Checkpoint.localFile(Path.of(file)), fingerprint);
+        }
+        if (key != null && !key.isEmpty()) {
+            LOGGER.log(INFO, "Keeping the listing watermark in object {0}/{1}", new Object[]{targetBucket, key});
+            return new Watermark(Checkpoint.s3Object(targetClient, targetBucket, key), fingerprint);
+        }
+        return null;
+    }
+
+    // Returns null when no index file is configured
+    private static TargetIndex openTargetIndex(final String targetBucket, final String targetFolder) {
+        final var file = System.getenv(COPY_TARGET_INDEX);
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        LOGGER.log(INFO, "Tracking copied objects in target index {0}", file);
+        try {
+            return TargetIndex.open(Path.of(file), targetBucket + "/" + (targetFolder != null ? targetFolder : ""));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long getOptionalLong(final String name, final long defaultValue) {
+        final var value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LOGGER.log(SEVERE, "Invalid value for {0}: {1}", new Object[]{name, value});
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     private static String getFolderPrefix() {
         return System.getenv(FOLDER);
     }
@@ -0,0 +1,170 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+// Selects the same objects as S3Cleaner, but each HEAD and delete is a future on the async client,
+// so thousands can be outstanding without a thread waiting on each of them
+public class AsyncS3Cleaner {
+
+  private static final Logger LOGGER = Logger.getLogger(AsyncS3Cleaner.class.getName());
+
+  private final S3AsyncClient s3Client;
+  private final String bucket;
+  private final long thresholdSeconds;
+  private final String folder;
+  // Negative means every key is HEADed for its last-modified metadata
+  private long headWindowSeconds = -1;
+  private int maxInFlight = 256;
+
+  private final List<ObjectIdentifier> pendingDeletes = new ArrayList<>();
+  private final List<CompletableFuture<?>> deletes = new ArrayList<>();
+  private final BatchDeleter.Results results = new BatchDeleter.Results();
+
+  public AsyncS3Cleaner(final S3AsyncClient s3Client, final String bucket, final long thresholdSeconds,
+                        final String folder) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+    this.thresholdSeconds = thresholdSeconds;
+    this.folder = folder != null && !folder.isEmpty() ?
+            folder.endsWith("/") ? folder : folder + "/"
+            : null;
+  }
+
+  public AsyncS3Cleaner withHeadWindowSeconds(final long headWindowSeconds) {
+    this.headWindowSeconds = headWindowSeconds;
+    return this;
+  }
+
+  public AsyncS3Cleaner withMaxInFlight(final int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    return this;
+  }
+
+  public void cleanOldObjects() {
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+    LOGGER.log(INFO, "Starting async cleaner for {0}/{1}, removing objects older than {2}, {3} checks in flight",
+            new Object[]{bucket, folder != null ? folder : "", threshold, maxInFlight});
+
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    int pageCount = 0;
+    try {
+      CompletableFuture<ListObjectsV2Response> nextPage = s3Client.listObjectsV2(request(null));
+      while (nextPage != null) {
+        final ListObjectsV2Response page = nextPage.join();
+        pageCount++;
+        LOGGER.log(FINE, "Page {0}: Listed {1} objects", new Object[]{pageCount, page.contents().size()});
+        // The next page is fetched while the keys of this one are checked
+        nextPage = Boolean.TRUE.equals(page.isTruncated())
+                ? s3Client.listObjectsV2(request(page.nextContinuationToken()))
+                : null;
+
+        for (S3Object s3Object : page.contents()) {
+          final String key = s3Object.key();
+          if (key.endsWith("/") || (folder != null && key.equals(folder))) {
+            LOGGER.log(FINE, "Skipping key {0}: directory or folder prefix", key);
+            continue;
+          }
+          // Holds up the listing once maxInFlight checks are outstanding
+          inFlight.acquireUninterruptibly();
+          isExpired(s3Object, threshold).whenComplete((expired, e) -> {
+            try {
+              if (e == null && expired) {
+                queueDelete(key);
+              }
+            } finally {
+              inFlight.release();
+            }
+          });
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Error listing objects in page {0}: {1}",
+              new Object[]{pageCount + 1, Throwables.cause(e).getMessage()});
+    }
+
+    // Every check has finished, and queued its key, once all permits are back
+    inFlight.acquireUninterruptibly(maxInFlight);
+    final CompletableFuture<?> remaining;
+    synchronized (pendingDeletes) {
+      flushDeletes();
+      remaining = CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0]));
+    }
+    remaining.join();
+    LOGGER.log(INFO, "Async cleaning finished. Processed {0} pages, deleted {1} objects, {2} failed.",
+            new Object[]{pageCount, results.deletedCount(), results.failedCount()});
+  }
+
+  private CompletableFuture<Boolean> isExpired(final S3Object s3Object, final Instant threshold) {
+    final Boolean fromListing = S3Cleaner.expiredFromListing(s3Object, threshold, headWindowSeconds);
+    if (fromListing != null) {
+      return CompletableFuture.completedFuture(fromListing);
+    }
+    return s3Client.headObject(HeadObjectRequest.builder().bucket(bucket).key(s3Object.key()).build())
+            .handle((head, e) -> {
+              if (e != null) {
+                LOGGER.log(WARNING, "Failed to fetch metadata for {0}: {1}",
+                        new Object[]{s3Object.key(), Throwables.cause(e).getMessage()});
+                return S3Cleaner.isLastModifiedExpired(s3Object, threshold);
+              }
+              return S3Cleaner.expiredFromMetadata(s3Object, head.metadata(), threshold);
+            });
+  }
+
+  private void queueDelete(final String key) {
+    synchronized (pendingDeletes) {
+      pendingDeletes.add(ObjectIdentifier.builder().key(key).build());
+      if (pendingDeletes.size() >= BatchDeleter.MAX_BATCH_SIZE) {
+        flushDeletes();
+      }
+    }
+  }
+
+  // Callers hold the pendingDeletes lock
+  private void flushDeletes() {
+    deletes.removeIf(CompletableFuture::isDone);
+    if (pendingDeletes.isEmpty()) {
+      return;
+    }
+    final List<ObjectIdentifier> batch = new ArrayList<>(pendingDeletes);
+    pendingDeletes.clear();
+    deletes.add(s3Client.deleteObjects(BatchDeleter.request(bucket, batch))
+            .handle((response, e) -> e != null
+                    ? results.failed(batch, Throwables.cause(e))
+                    : results.completed(batch, response)));
+  }
+
+  private ListObjectsV2Request request(final String continuationToken) {
+    ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(bucket);
+    if (folder != null) {
+      requestBuilder.prefix(folder);
+    }
+    if (continuationToken != null) {
+      requestBuilder.continuationToken(continuationToken);
+    }
+    return requestBuilder.build();
+  }
+
+  public long deletedCount() {
+    return results.deletedCount();
+  }
+
+  public long failedCount() {
+    return results.failedCount();
+  }
+}
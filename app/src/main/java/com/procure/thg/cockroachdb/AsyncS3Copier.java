@@ -0,0 +1,335 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+// Copies recent objects with the async clients: the target HEAD, GET and PUT of each small object are
+// chained futures, so a few event loop threads keep thousands of copies moving. Objects too large to
+// buffer go through a local file when the client splits transfers itself (CRT), and are otherwise
+// handed to the synchronous S3Copier and its multipart machinery.
+public class AsyncS3Copier {
+
+  private static final Logger LOGGER = Logger.getLogger(AsyncS3Copier.class.getName());
+
+  private static final int VERIFY_ATTEMPTS = 3;
+  // The payload budget is counted in KB so that budgets beyond 2GB still fit in a Semaphore
+  private static final int PERMIT_BYTES = 1024;
+
+  private final S3AsyncClient sourceClient;
+  private final String sourceBucket;
+  private final String sourceFolder;
+  private final S3AsyncClient targetClient;
+  private final String targetBucket;
+  private final String targetFolder;
+  private final boolean copyModified;
+  private int maxInFlight = 256;
+  private long bufferBudgetBytes = 512L * 1024 * 1024;
+  private boolean verifyChecksums;
+  private S3Copier largeObjectCopier;
+  private int largeObjectConcurrency = 1;
+  private Path largeObjectSpillDirectory;
+  private ThroughputMeter throughputMeter = new ThroughputMeter("async");
+
+  public AsyncS3Copier(final S3AsyncClient sourceClient, final String sourceBucket, final String sourceFolder,
+                       final S3AsyncClient targetClient, final String targetBucket, final String targetFolder,
+                       final boolean copyModified) {
+    this.sourceClient = sourceClient;
+    this.sourceBucket = sourceBucket;
+    this.sourceFolder = suffixFolderName(sourceFolder);
+    this.targetClient = targetClient;
+    this.targetBucket = targetBucket;
+    this.targetFolder = suffixFolderName(targetFolder);
+    this.copyModified = copyModified;
+  }
+
+  public AsyncS3Copier withMaxInFlight(final int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    return this;
+  }
+
+  // Caps the bytes of buffered objects held at once, whatever the number of copies in flight
+  public AsyncS3Copier withBufferBudget(final long bufferBudgetBytes) {
+    this.bufferBudgetBytes = Math.max(PERMIT_BYTES, bufferBudgetBytes);
+    return this;
+  }
+
+  public AsyncS3Copier withChecksumVerification(final boolean verifyChecksums) {
+    this.verifyChecksums = verifyChecksums;
+    return this;
+  }
+
+  // Objects of MEMORY_BUFFER_THRESHOLD and above go through this copier on blocking worker threads
+  public AsyncS3Copier withLargeObjectCopier(final S3Copier largeObjectCopier, final int concurrency) {
+    this.largeObjectCopier = largeObjectCopier;
+    this.largeObjectConcurrency = Math.max(1, concurrency);
+    return this;
+  }
+
+  // Objects of MEMORY_BUFFER_THRESHOLD and above are downloaded to a file in this directory and uploaded from it,
+  // which only makes sense with a client that splits both requests into parallel parts
+  public AsyncS3Copier withLargeObjectSpill(final Path largeObjectSpillDirectory) {
+    this.largeObjectSpillDirectory = largeObjectSpillDirectory;
+    return this;
+  }
+
+  public AsyncS3Copier withThroughputMeter(final ThroughputMeter throughputMeter) {
+    this.throughputMeter = throughputMeter;
+    return this;
+  }
+
+  private static String suffixFolderName(final String folder) {
+    if (folder == null || folder.isEmpty()) {
+      return "";
+    }
+    return folder.endsWith("/") ? folder : folder + "/";
+  }
+
+  public void copyRecentObjects(final long thresholdSeconds) {
+    LOGGER.log(INFO, "Starting async copy from {0}/{1} to {2}/{3}, {4} copies in flight",
+            new Object[]{sourceBucket, sourceFolder, targetBucket, targetFolder, maxInFlight});
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    final int budgetPermits = (int) Math.min(Integer.MAX_VALUE, bufferBudgetBytes / PERMIT_BYTES);
+    final Semaphore payloadBudget = new Semaphore(budgetPermits);
+    final AtomicLong copied = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    try (BoundedExecutor largeWorkers = new BoundedExecutor("large-copier", largeObjectConcurrency)) {
+      CompletableFuture<ListObjectsV2Response> nextPage = sourceClient.listObjectsV2(request(null));
+      while (nextPage != null) {
+        final ListObjectsV2Response page = nextPage.join();
+        // The next page is fetched while this one is copied
+        nextPage = Boolean.TRUE.equals(page.isTruncated())
+                ? sourceClient.listObjectsV2(request(page.nextContinuationToken()))
+                : null;
+
+        for (S3Object s3Object : page.contents()) {
+          if (!s3Object.lastModified().isAfter(threshold) || !s3Object.key().startsWith(sourceFolder)) {
+            continue;
+          }
+          final boolean large = s3Object.size() != null && s3Object.size() >= S3Copier.MEMORY_BUFFER_THRESHOLD;
+          if (large && largeObjectSpillDirectory == null) {
+            copyLargeObject(largeWorkers, s3Object.key(), copied, failed);
+            continue;
+          }
+          // Holds up the listing once maxInFlight copies are outstanding, or once the objects being
+          // buffered would exceed the budget. Spilled objects go through a file and reserve nothing.
+          final int payloadPermits = large ? 0 : payloadPermits(s3Object, budgetPermits);
+          inFlight.acquireUninterruptibly();
+          payloadBudget.acquireUninterruptibly(payloadPermits);
+          copyObject(s3Object, large).whenComplete((transferred, e) -> {
+            try {
+              if (e != null) {
+                failed.incrementAndGet();
+                LOGGER.log(SEVERE, String.format("Failed to copy object %s: %s", s3Object.key(),
+                        Throwables.cause(e).getMessage()), Throwables.cause(e));
+              } else if (transferred) {
+                copied.incrementAndGet();
+              } else {
+                skipped.incrementAndGet();
+              }
+            } finally {
+              payloadBudget.release(payloadPermits);
+              inFlight.release();
+            }
+          });
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.log(SEVERE, String.format("Failed to list objects in %s/%s: %s",
+              sourceBucket, sourceFolder, Throwables.cause(e).getMessage()), e);
+    }
+    // Every copy has finished once all permits are back
+    inFlight.acquireUninterruptibly(maxInFlight);
+    throughputMeter.report();
+    LOGGER.log(INFO, "Async copy finished. Copied {0} objects, skipped {1}, {2} failed",
+            new Object[]{copied.get(), skipped.get(), failed.get()});
+  }
+
+  // An object of unknown size is counted as the largest that is buffered, and an object above the whole
+  // budget takes all of it so it is copied on its own instead of blocking forever
+  private static int payloadPermits(final S3Object s3Object, final int budgetPermits) {
+    final long size = s3Object.size() != null ? s3Object.size() : S3Copier.MEMORY_BUFFER_THRESHOLD;
+    return (int) Math.min(budgetPermits, Math.max(1, (size + PERMIT_BYTES - 1) / PERMIT_BYTES));
+  }
+
+  private void copyLargeObject(final BoundedExecutor largeWorkers, final String sourceKey, final AtomicLong copied,
+                               final AtomicLong failed) {
+    if (largeObjectCopier == null) {
+      failed.incrementAndGet();
+      LOGGER.log(WARNING, "Skipping {0}: too large to buffer and no large object copier is set", sourceKey);
+      return;
+    }
+    largeWorkers.submit(() -> {
+      try {
+        largeObjectCopier.copyObject(sourceKey);
+        copied.incrementAndGet();
+      } catch (Exception e) {
+        failed.incrementAndGet();
+        LOGGER.log(SEVERE, String.format("Failed to copy object %s: %s", sourceKey, e.getMessage()), e);
+      }
+    });
+  }
+
+  // Completes with false when the target already holds the object
+  private CompletableFuture<Boolean> copyObject(final S3Object source, final boolean large) {
+    final String targetKey = targetFolder + source.key().substring(sourceFolder.length());
+    return shouldCopy(source, targetKey).thenCompose(copy -> {
+      if (!copy) {
+        return CompletableFuture.completedFuture(false);
+      }
+      final CompletableFuture<Long> transferred = large
+              ? transferThroughFile(source.key(), targetKey)
+              : transfer(source.key(), targetKey, 1);
+      return transferred.thenApply(bytes -> {
+        throughputMeter.record(bytes);
+        return true;
+      });
+    });
+  }
+
+  private CompletableFuture<Boolean> shouldCopy(final S3Object source, final String targetKey) {
+    return targetClient.headObject(HeadObjectRequest.builder().bucket(targetBucket).key(targetKey).build())
+            .handle((targetHead, e) -> {
+              if (e != null) {
+                if (!(Throwables.cause(e) instanceof NoSuchKeyException)) {
+                  // On any error, attempt the copy
+                  LOGGER.log(WARNING, "Error checking existence of {0}/{1}: {2}",
+                          new Object[]{targetBucket, targetKey, Throwables.cause(e).getMessage()});
+                }
+                return true;
+              }
+              if (!copyModified) {
+                LOGGER.log(FINE, "Object {0}/{1} already exists, skipping (copyModified=false)",
+                        new Object[]{targetBucket, targetKey});
+                return false;
+              }
+              // The listing already carries the source ETag and size, so unlike S3Copier no source HEAD is sent
+              final boolean unchanged = S3Copier.isCopyOf(source.eTag(), source.size(), targetHead);
+              if (unchanged) {
+                LOGGER.log(FINE, "Object {0}/{1} unchanged, skipping (copyModified=true)",
+                        new Object[]{targetBucket, targetKey});
+              }
+              return !unchanged;
+            });
+  }
+
+  // Completes with the number of bytes copied
+  private CompletableFuture<Long> transfer(final String sourceKey, final String targetKey, final int attempt) {
+    return sourceClient.getObject(GetObjectRequest.builder().bucket(sourceBucket).key(sourceKey).build(),
+                    AsyncResponseTransformer.toBytes())
+            .thenCompose(object -> targetClient.putObject(verifiedPutRequest(object, targetKey),
+                            AsyncRequestBody.fromBytes(object.asByteArrayUnsafe()))
+                    .thenApply(response -> {
+                      LOGGER.log(FINE, "Copied object from {0}/{1} to {2}/{3}",
+                              new Object[]{sourceBucket, sourceKey, targetBucket, targetKey});
+                      return (long) object.asByteArrayUnsafe().length;
+                    }))
+            .exceptionallyCompose(e -> {
+              // A mismatch means the bytes were damaged on the way in, so the whole transfer is worth repeating
+              if (Throwables.cause(e) instanceof UncheckedIOException unchecked
+                      && unchecked.getCause() instanceof S3Copier.ChecksumMismatchException
+                      && attempt < VERIFY_ATTEMPTS) {
+                LOGGER.log(WARNING, "Retrying copy of {0}/{1} after attempt {2}: {3}",
+                        new Object[]{sourceBucket, sourceKey, attempt, unchecked.getCause().getMessage()});
+                return transfer(sourceKey, targetKey, attempt + 1);
+              }
+              return CompletableFuture.failedFuture(Throwables.cause(e));
+            });
+  }
+
+  // With the CRT client the GET is split into parallel ranged GETs and the PUT into a multipart upload,
+  // and the client checks each part itself. The file keeps the payload off the heap in between.
+  private CompletableFuture<Long> transferThroughFile(final String sourceKey, final String targetKey) {
+    final Path spill = largeObjectSpillDirectory.resolve("s3copier-" + UUID.randomUUID() + ".spill");
+    LOGGER.log(INFO, "Copying large object from {0}/{1} to {2}/{3} through {4}",
+            new Object[]{sourceBucket, sourceKey, targetBucket, targetKey, spill});
+    return sourceClient.getObject(GetObjectRequest.builder().bucket(sourceBucket).key(sourceKey).build(),
+                    AsyncResponseTransformer.toFile(spill))
+            .thenCompose(response -> targetClient.putObject(putRequest(response, targetKey),
+                            AsyncRequestBody.fromFile(spill))
+                    .thenApply(put -> response.contentLength() != null ? response.contentLength() : 0L))
+            .whenComplete((bytes, e) -> {
+              try {
+                Files.deleteIfExists(spill);
+              } catch (IOException deleteFailure) {
+                LOGGER.log(WARNING, "Failed to delete spill file {0}: {1}",
+                        new Object[]{spill, deleteFailure.getMessage()});
+              }
+            });
+  }
+
+  private PutObjectRequest verifiedPutRequest(final ResponseBytes<GetObjectResponse> object, final String targetKey) {
+    final PutObjectRequest putRequest = putRequest(object.response(), targetKey);
+    if (!verifyChecksums) {
+      return putRequest;
+    }
+    try (ChecksumInputStream checked = new ChecksumInputStream(object.asInputStream())) {
+      checked.transferTo(OutputStream.nullOutputStream());
+      return S3Copier.verified(putRequest, checked, object.response().eTag());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private PutObjectRequest putRequest(final GetObjectResponse response, final String targetKey) {
+    Map<String, String> metadata = new HashMap<>(response.metadata());
+    if (response.lastModified() != null) {
+      metadata.put("x-amz-meta-last-modified", response.lastModified().toString());
+    }
+    if (response.eTag() != null) {
+      metadata.put(S3Copier.SOURCE_ETAG_METADATA, response.eTag());
+    }
+    PutObjectRequest.Builder builder = PutObjectRequest.builder()
+            .bucket(targetBucket)
+            .key(targetKey);
+    if (!metadata.isEmpty()) {
+      builder.metadata(metadata);
+    }
+    if (response.contentType() != null) {
+      builder.contentType(response.contentType());
+    }
+    return builder.build();
+  }
+
+  private ListObjectsV2Request request(final String continuationToken) {
+    ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(sourceBucket);
+    if (!sourceFolder.isEmpty()) {
+      requestBuilder.prefix(sourceFolder);
+    }
+    if (continuationToken != null) {
+      requestBuilder.continuationToken(continuationToken);
+    }
+    return requestBuilder.build();
+  }
+}
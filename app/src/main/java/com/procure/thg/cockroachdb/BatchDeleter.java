@@ -0,0 +1,118 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+public class BatchDeleter {
+
+  private static final Logger LOGGER = Logger.getLogger(BatchDeleter.class.getName());
+
+  // DeleteObjects accepts at most 1000 keys per request
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private final S3Client s3Client;
+  private final String bucket;
+  private final Results results = new Results();
+
+  public BatchDeleter(final S3Client s3Client, final String bucket) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+  }
+
+  public Set<String> deleteKeys(final List<String> keys) {
+    final List<ObjectIdentifier> objects = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      objects.add(ObjectIdentifier.builder().key(key).build());
+    }
+    return delete(objects);
+  }
+
+  // Returns the keys that could not be deleted
+  public Set<String> delete(final List<ObjectIdentifier> objects) {
+    final Set<String> failedKeys = new HashSet<>();
+    for (int from = 0; from < objects.size(); from += MAX_BATCH_SIZE) {
+      deleteBatch(objects.subList(from, Math.min(from + MAX_BATCH_SIZE, objects.size())), failedKeys);
+    }
+    return failedKeys;
+  }
+
+  private void deleteBatch(final List<ObjectIdentifier> batch, final Set<String> failedKeys) {
+    try {
+      failedKeys.addAll(results.completed(batch, s3Client.deleteObjects(request(bucket, batch))));
+    } catch (Exception e) {
+      failedKeys.addAll(results.failed(batch, e));
+    }
+  }
+
+  // Quiet mode: the response only lists the keys that could not be deleted
+  static DeleteObjectsRequest request(final String bucket, final List<ObjectIdentifier> batch) {
+    return DeleteObjectsRequest.builder()
+            .bucket(bucket)
+            .delete(Delete.builder().objects(batch).quiet(true).build())
+            .build();
+  }
+
+  public long deletedCount() {
+    return results.deletedCount();
+  }
+
+  public long failedCount() {
+    return results.failedCount();
+  }
+
+  // Counts and logs the outcome of each batch, shared with AsyncS3Cleaner so both engines report alike
+  static class Results {
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Returns the keys that could not be deleted
+    Set<String> completed(final List<ObjectIdentifier> batch, final DeleteObjectsResponse response) {
+      final Set<String> failedKeys = new HashSet<>();
+      final List<S3Error> errors = response.errors();
+      for (S3Error error : errors) {
+        LOGGER.log(WARNING, "Failed to delete object {0}: {1} {2}",
+                new Object[]{error.key(), error.code(), error.message()});
+        failedKeys.add(error.key());
+      }
+      failed.addAndGet(errors.size());
+      deleted.addAndGet(batch.size() - errors.size());
+      LOGGER.log(FINE, "Deleted {0} of {1} objects in batch",
+              new Object[]{batch.size() - errors.size(), batch.size()});
+      return failedKeys;
+    }
+
+    Set<String> failed(final List<ObjectIdentifier> batch, final Throwable e) {
+      LOGGER.log(WARNING, "Failed to delete batch of {0} objects: {1}",
+              new Object[]{batch.size(), e.getMessage()});
+      final Set<String> failedKeys = new HashSet<>();
+      for (ObjectIdentifier object : batch) {
+        LOGGER.log(WARNING, "Failed to delete object {0}", object.key());
+        failedKeys.add(object.key());
+      }
+      failed.addAndGet(batch.size());
+      return failedKeys;
+    }
+
+    long deletedCount() {
+      return deleted.get();
+    }
+
+    long failedCount() {
+      return failed.get();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.WARNING;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class BoundedExecutor implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(BoundedExecutor.class.getName());
+
+  private final ExecutorService executor;
+  private final Semaphore permits;
+
+  public BoundedExecutor(final String name, final int concurrency) {
+    if (concurrency > 1) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      // One queued task per worker keeps workers busy between submissions
+      this.permits = new Semaphore(concurrency * 2);
+    } else {
+      this.executor = null;
+      this.permits = null;
+    }
+  }
+
+  // Blocks the caller while the executor is saturated; runs inline when concurrency is 1
+  public Future<?> submit(final Runnable task) {
+    if (executor == null) {
+      try {
+        task.run();
+        return CompletableFuture.completedFuture(null);
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    permits.acquireUninterruptibly();
+    try {
+      return executor.submit(() -> {
+        try {
+          task.run();
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  public static void awaitAll(final List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for tasks", e);
+      } catch (ExecutionException e) {
+        LOGGER.log(WARNING, "Task failed: {0}", e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+        LOGGER.log(WARNING, "Timed out waiting for tasks to finish");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+
+public class BucketLister {
+
+  private static final Logger LOGGER = Logger.getLogger(BucketLister.class.getName());
+
+  @FunctionalInterface
+  public interface PageHandler {
+    void handle(ListObjectsV2Response page);
+  }
+
+  // Decides from a discovered prefix, relative to the listed prefix, whether it is worth listing
+  @FunctionalInterface
+  public interface PrefixFilter {
+    boolean include(String relativePrefix);
+  }
+
+  private static final String DELIMITER = "/";
+
+  private final S3Client s3Client;
+  private final int shardDepth;
+  private final int concurrency;
+  private final PrefixFilter prefixFilter;
+
+  public BucketLister(final S3Client s3Client) {
+    this(s3Client, 0, 1);
+  }
+
+  public BucketLister(final S3Client s3Client, final int shardDepth, final int concurrency) {
+    this(s3Client, shardDepth, concurrency, null);
+  }
+
+  private BucketLister(final S3Client s3Client, final int shardDepth, final int concurrency,
+                       final PrefixFilter prefixFilter) {
+    this.s3Client = s3Client;
+    this.shardDepth = shardDepth;
+    this.concurrency = Math.max(1, concurrency);
+    this.prefixFilter = prefixFilter;
+  }
+
+  // A lister that discovers prefixes at least filterDepth levels deep and skips those the filter rejects
+  public BucketLister withPrefixFilter(final PrefixFilter prefixFilter, final int filterDepth) {
+    return new BucketLister(s3Client, Math.max(shardDepth, filterDepth), concurrency, prefixFilter);
+  }
+
+  // A lister over the same client that hands every page to the handler in key order
+  public BucketLister sequential() {
+    return shardDepth <= 0 ? this : new BucketLister(s3Client);
+  }
+
+  // With a shard depth, common prefixes are discovered level by level and every prefix found at
+  // the last level is listed concurrently. The handler must then be safe to call from several threads.
+  public void forEachPage(final ListObjectsV2Request request, final PageHandler handler) {
+    forEachPage(request, null, handler);
+  }
+
+  // With a checkpoint, prefixes finished by a previous run are skipped and unfinished ones resume
+  // after their last fully handled page. The checkpoint is removed once the whole listing completes.
+  public void forEachPage(final ListObjectsV2Request request, final Checkpoint checkpoint, final PageHandler handler) {
+    try {
+      listAll(request, checkpoint, handler);
+    } catch (RuntimeException e) {
+      if (checkpoint != null) {
+        checkpoint.save();
+      }
+      throw e;
+    }
+    if (checkpoint != null) {
+      checkpoint.finish();
+    }
+  }
+
+  private void listAll(final ListObjectsV2Request request, final Checkpoint checkpoint, final PageHandler handler) {
+    if (shardDepth <= 0) {
+      listCheckpointedShard(request, checkpoint, handler);
+      return;
+    }
+
+    final ExecutorService shardExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+      Thread thread = new Thread(runnable, "lister-shard");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final String rootPrefix = request.prefix() != null ? request.prefix() : "";
+      List<String> prefixes = List.of(rootPrefix);
+      long skipped = 0;
+      for (int level = 0; level < shardDepth && !prefixes.isEmpty(); level++) {
+        final List<Future<List<String>>> discoveries = new ArrayList<>();
+        for (String prefix : prefixes) {
+          discoveries.add(shardExecutor.submit(() -> discoverPrefixes(request, prefix, handler)));
+        }
+        final List<String> nextPrefixes = new ArrayList<>();
+        for (List<String> discovered : awaitAll(discoveries)) {
+          for (String prefix : discovered) {
+            if (prefixFilter == null || prefixFilter.include(prefix.substring(rootPrefix.length()))) {
+              nextPrefixes.add(prefix);
+            } else {
+              skipped++;
+            }
+          }
+        }
+        prefixes = nextPrefixes;
+        LOGGER.log(FINE, "Discovered {0} prefixes at depth {1}", new Object[]{prefixes.size(), level + 1});
+      }
+      if (prefixFilter != null) {
+        LOGGER.log(INFO, "Skipped {0} prefixes that cannot hold matching objects", skipped);
+      }
+
+      LOGGER.log(INFO, "Listing {0} prefixes with {1} threads", new Object[]{prefixes.size(), concurrency});
+      final List<Future<Void>> shards = new ArrayList<>();
+      for (String prefix : prefixes) {
+        shards.add(shardExecutor.submit(() -> {
+          listCheckpointedShard(request.toBuilder().prefix(prefix).build(), checkpoint, handler);
+          return null;
+        }));
+      }
+      awaitAll(shards);
+    } finally {
+      shardExecutor.shutdownNow();
+    }
+  }
+
+  private void listCheckpointedShard(final ListObjectsV2Request request, final Checkpoint checkpoint,
+                                     final PageHandler handler) {
+    if (checkpoint == null) {
+      listShard(request, handler);
+      return;
+    }
+    final String shard = request.prefix() != null ? request.prefix() : "";
+    if (checkpoint.isComplete(shard)) {
+      LOGGER.log(INFO, "Skipping prefix {0}: completed by a previous run", shard);
+      return;
+    }
+    ListObjectsV2Request start = request;
+    final String resumeToken = checkpoint.resumeToken(shard);
+    if (resumeToken != null) {
+      LOGGER.log(INFO, "Resuming prefix {0} from checkpoint", shard);
+      start = request.toBuilder().continuationToken(resumeToken).build();
+    }
+    listShard(start, page -> {
+      handler.handle(page);
+      if (Boolean.TRUE.equals(page.isTruncated())) {
+        checkpoint.pageCompleted(shard, page.nextContinuationToken());
+      }
+    });
+    checkpoint.shardCompleted(shard);
+  }
+
+  // Keys sitting directly at this level are handed to the handler, sub-prefixes are returned. With
+  // encodingType=url the SDK has already decoded the common prefixes, so they are used as they come
+  private List<String> discoverPrefixes(final ListObjectsV2Request request, final String prefix,
+                                        final PageHandler handler) {
+    final List<String> prefixes = new ArrayList<>();
+    listShard(request.toBuilder().prefix(prefix).delimiter(DELIMITER).build(), page -> {
+      for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+        prefixes.add(commonPrefix.prefix());
+      }
+      if (!page.contents().isEmpty()) {
+        handler.handle(page);
+      }
+    });
+    return prefixes;
+  }
+
+  // Waits for every shard so one failing prefix does not abandon the others, then rethrows the first failure
+  private static <T> List<T> awaitAll(final List<Future<T>> futures) {
+    final List<T> results = new ArrayList<>();
+    RuntimeException failure = null;
+    for (Future<T> future : futures) {
+      try {
+        results.add(await(future));
+      } catch (RuntimeException e) {
+        LOGGER.log(WARNING, "Failed to list prefix: {0}", e.getMessage());
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return results;
+  }
+
+  // Pages are handed to the handler in order. The next page is requested in the background
+  // as soon as its continuation token is known, so listing overlaps with page processing.
+  private void listShard(final ListObjectsV2Request request, final PageHandler handler) {
+    final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "lister-prefetch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      ListObjectsV2Response page = s3Client.listObjectsV2(request);
+      while (true) {
+        Future<ListObjectsV2Response> next = null;
+        if (Boolean.TRUE.equals(page.isTruncated())) {
+          final ListObjectsV2Request nextRequest = request.toBuilder()
+                  .continuationToken(page.nextContinuationToken())
+                  .build();
+          LOGGER.log(FINE, "Prefetching page with continuation token: {0}", page.nextContinuationToken());
+          next = prefetcher.submit(() -> s3Client.listObjectsV2(nextRequest));
+        }
+        try {
+          handler.handle(page);
+        } catch (RuntimeException e) {
+          if (next != null) {
+            next.cancel(true);
+          }
+          throw e;
+        }
+        if (next == null) {
+          return;
+        }
+        page = await(next);
+      }
+    } finally {
+      prefetcher.shutdownNow();
+    }
+  }
+
+  private static <T> T await(final Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while listing objects", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.sync.RequestBody;
+
+public class BufferPool {
+
+  private static final Logger LOGGER = Logger.getLogger(BufferPool.class.getName());
+
+  private static final int TRANSFER_SIZE = 64 * 1024;
+
+  private final int chunkSize;
+  private final int totalChunks;
+  // Fair, so a copy waiting for many chunks is not starved by a stream of small ones
+  private final Semaphore available;
+  private final ConcurrentLinkedQueue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<>();
+
+  public BufferPool(final long budgetBytes, final int chunkSize) {
+    this.chunkSize = chunkSize;
+    this.totalChunks = (int) Math.max(1, budgetBytes / chunkSize);
+    this.available = new Semaphore(totalChunks, true);
+  }
+
+  public long budgetBytes() {
+    return (long) totalChunks * chunkSize;
+  }
+
+  // Blocks until enough chunks for the given number of bytes are free
+  public Lease acquire(final long bytes) {
+    final int chunks = (int) Math.max(1, (bytes + chunkSize - 1) / chunkSize);
+    if (chunks > totalChunks) {
+      throw new IllegalArgumentException(String.format("Cannot buffer %d bytes with a budget of %d bytes",
+              bytes, budgetBytes()));
+    }
+    available.acquireUninterruptibly(chunks);
+    final List<ByteBuffer> leased = new ArrayList<>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      ByteBuffer chunk = freeChunks.poll();
+      // Chunks are allocated on first use and kept, off the heap so large copies never turn into humongous objects
+      leased.add(chunk != null ? chunk : ByteBuffer.allocateDirect(chunkSize));
+    }
+    LOGGER.log(FINE, "Leased {0} chunks for {1} bytes", new Object[]{chunks, bytes});
+    return new Lease(leased);
+  }
+
+  public class Lease implements AutoCloseable {
+    private final List<ByteBuffer> chunks;
+    private long length;
+    private boolean released;
+
+    private Lease(final List<ByteBuffer> chunks) {
+      this.chunks = chunks;
+    }
+
+    // Reads exactly length bytes from the stream into the leased chunks
+    public void fill(final InputStream in, final long length) throws IOException {
+      final byte[] transfer = new byte[Math.min(chunkSize, TRANSFER_SIZE)];
+      long remaining = length;
+      for (ByteBuffer chunk : chunks) {
+        chunk.clear();
+        while (chunk.hasRemaining() && remaining > 0) {
+          final int read = in.read(transfer, 0, (int) Math.min(Math.min(transfer.length, chunk.remaining()), remaining));
+          if (read < 0) {
+            throw new EOFException(String.format("Stream ended after %d of %d bytes", length - remaining, length));
+          }
+          chunk.put(transfer, 0, read);
+          remaining -= read;
+        }
+        chunk.flip();
+      }
+      this.length = length;
+    }
+
+    // Every newStream() starts from the beginning, so the SDK can retry without a contiguous copy of the payload
+    public RequestBody requestBody() {
+      return RequestBody.fromContentProvider(() -> new ChunkInputStream(chunks), length, "application/octet-stream");
+    }
+
+    @Override
+    public void close() {
+      if (released) {
+        return;
+      }
+      released = true;
+      freeChunks.addAll(chunks);
+      available.release(chunks.size());
+    }
+  }
+
+  private static final class ChunkInputStream extends InputStream {
+    private final List<ByteBuffer> chunks;
+    private int index;
+
+    private ChunkInputStream(final List<ByteBuffer> chunks) {
+      // Each stream reads through its own views, leaving the chunks' positions untouched
+      this.chunks = new ArrayList<>(chunks.size());
+      for (ByteBuffer chunk : chunks) {
+        this.chunks.add(chunk.asReadOnlyBuffer());
+      }
+    }
+
+    @Override
+    public int read() {
+      final ByteBuffer chunk = current();
+      return chunk == null ? -1 : chunk.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (len == 0) {
+        return 0;
+      }
+      final ByteBuffer chunk = current();
+      if (chunk == null) {
+        return -1;
+      }
+      final int count = Math.min(len, chunk.remaining());
+      chunk.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      final ByteBuffer chunk = current();
+      return chunk == null ? 0 : chunk.remaining();
+    }
+
+    private ByteBuffer current() {
+      while (index < chunks.size() && !chunks.get(index).hasRemaining()) {
+        index++;
+      }
+      return index < chunks.size() ? chunks.get(index) : null;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+public class Checkpoint {
+
+  private static final Logger LOGGER = Logger.getLogger(Checkpoint.class.getName());
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String TOKEN_PREFIX = "token.";
+  private static final String DONE_PREFIX = "done.";
+  private static final String COUNTER_PREFIX = "counter.";
+
+  public interface Store {
+    // Returns null when no checkpoint has been written yet
+    byte[] read() throws IOException;
+
+    void write(byte[] content) throws IOException;
+
+    void delete() throws IOException;
+  }
+
+  private final Store store;
+  private final String fingerprint;
+  private final Duration saveInterval;
+  private final Properties state = new Properties();
+  private final Map<String, LongSupplier> counters = new ConcurrentHashMap<>();
+  private Instant lastSave = Instant.now();
+
+  public Checkpoint(final Store store, final String fingerprint, final Duration saveInterval) {
+    this.store = store;
+    this.fingerprint = fingerprint;
+    this.saveInterval = saveInterval;
+    load();
+  }
+
+  public static Store localFile(final Path file) {
+    return new Store() {
+      @Override
+      public byte[] read() throws IOException {
+        return Files.exists(file) ? Files.readAllBytes(file) : null;
+      }
+
+      @Override
+      public void write(final byte[] content) throws IOException {
+        // Write then rename so an eviction mid-write never leaves a truncated checkpoint
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, content);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      @Override
+      public void delete() throws IOException {
+        Files.deleteIfExists(file);
+      }
+    };
+  }
+
+  public static Store s3Object(final S3Client s3Client, final String bucket, final String key) {
+    return new Store() {
+      @Override
+      public byte[] read() {
+        try {
+          return s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(key).build()).asByteArray();
+        } catch (NoSuchKeyException e) {
+          return null;
+        }
+      }
+
+      @Override
+      public void write(final byte[] content) {
+        s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), RequestBody.fromBytes(content));
+      }
+
+      @Override
+      public void delete() {
+        s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+      }
+    };
+  }
+
+  private void load() {
+    try {
+      byte[] content = store.read();
+      if (content == null) {
+        LOGGER.log(INFO, "No checkpoint found, starting from the beginning");
+        return;
+      }
+      Properties saved = new Properties();
+      saved.load(new ByteArrayInputStream(content));
+      if (!fingerprint.equals(saved.getProperty(FINGERPRINT))) {
+        LOGGER.log(INFO, "Ignoring checkpoint written with different parameters: {0}",
+                saved.getProperty(FINGERPRINT));
+        return;
+      }
+      state.putAll(saved);
+      LOGGER.log(INFO, "Resuming from checkpoint with {0} entries", state.size());
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to read checkpoint, starting from the beginning: {0}", e.getMessage());
+    }
+  }
+
+  public synchronized String resumeToken(final String shard) {
+    return state.getProperty(TOKEN_PREFIX + shard);
+  }
+
+  public synchronized boolean isComplete(final String shard) {
+    return Boolean.parseBoolean(state.getProperty(DONE_PREFIX + shard));
+  }
+
+  // Records the continuation token that follows the last fully processed page of a shard
+  public void pageCompleted(final String shard, final String nextToken) {
+    synchronized (this) {
+      state.setProperty(TOKEN_PREFIX + shard, nextToken);
+    }
+    saveIfDue();
+  }
+
+  public void shardCompleted(final String shard) {
+    synchronized (this) {
+      state.remove(TOKEN_PREFIX + shard);
+      state.setProperty(DONE_PREFIX + shard, "true");
+    }
+    saveIfDue();
+  }
+
+  // Counters report the total across resumed runs: the restored value plus the live count
+  public void trackCounter(final String name, final LongSupplier current) {
+    counters.put(name, current);
+  }
+
+  public synchronized long restoredCounter(final String name) {
+    return Long.parseLong(state.getProperty(COUNTER_PREFIX + name, "0"));
+  }
+
+  private void saveIfDue() {
+    synchronized (this) {
+      if (Duration.between(lastSave, Instant.now()).compareTo(saveInterval) < 0) {
+        return;
+      }
+    }
+    save();
+  }
+
+  public void save() {
+    final byte[] content;
+    synchronized (this) {
+      lastSave = Instant.now();
+      Properties snapshot = new Properties();
+      snapshot.putAll(state);
+      snapshot.setProperty(FINGERPRINT, fingerprint);
+      counters.forEach((name, current) ->
+              snapshot.setProperty(COUNTER_PREFIX + name, Long.toString(restoredCounter(name) + current.getAsLong())));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        snapshot.store(out, null);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      content = out.toByteArray();
+    }
+    try {
+      store.write(content);
+      LOGGER.log(FINE, "Checkpoint saved");
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to save checkpoint: {0}", e.getMessage());
+    }
+  }
+
+  // Called once the whole run has finished, so the next run starts from scratch
+  public void finish() {
+    try {
+      store.delete();
+      LOGGER.log(INFO, "Run complete, checkpoint removed");
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to remove checkpoint: {0}", e.getMessage());
+    }
+  }
+}
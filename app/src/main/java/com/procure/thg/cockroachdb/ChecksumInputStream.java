@@ -0,0 +1,97 @@
+package com.procure.thg.cockroachdb;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+// Computes MD5 and CRC32C of every byte read through it, so a copy is checked without reading it twice
+public class ChecksumInputStream extends FilterInputStream {
+
+  private final MessageDigest md5;
+  private final CRC32C crc32c = new CRC32C();
+  private byte[] md5Digest;
+
+  public ChecksumInputStream(final InputStream in) {
+    super(in);
+    try {
+      this.md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = super.read();
+    if (b >= 0) {
+      md5.update((byte) b);
+      crc32c.update(b);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    final int read = super.read(b, off, len);
+    if (read > 0) {
+      md5.update(b, off, read);
+      crc32c.update(b, off, read);
+    }
+    return read;
+  }
+
+  // Skipped bytes would be missing from the checksums
+  @Override
+  public long skip(final long n) throws IOException {
+    throw new IOException("skip is not supported while computing checksums");
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  // Only meaningful once the whole stream has been read
+  public synchronized String md5Hex() {
+    return HexFormat.of().formatHex(md5Digest());
+  }
+
+  public synchronized String md5Base64() {
+    return Base64.getEncoder().encodeToString(md5Digest());
+  }
+
+  public String crc32cHex() {
+    return String.format("%08x", crc32c.getValue());
+  }
+
+  private byte[] md5Digest() {
+    if (md5Digest == null) {
+      md5Digest = md5.digest();
+    }
+    return md5Digest;
+  }
+
+  // Single-part ETags are the hex MD5 of the object; multipart and SSE-KMS ETags are not
+  public static boolean isMd5ETag(final String eTag) {
+    return eTag != null && unquote(eTag).matches("[0-9a-fA-F]{32}");
+  }
+
+  public static String unquote(final String eTag) {
+    return eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"")
+            ? eTag.substring(1, eTag.length() - 1)
+            : eTag;
+  }
+
+  public static String md5Base64(final byte[] content) {
+    try {
+      return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.procure.thg.cockroachdb;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+// Prunes date-partitioned prefixes, such as yyyy/MM/dd, against the threshold. Each level of the
+// pattern is compared with the threshold formatted the same way, which relies on zero-padded fields
+// running from the most to the least significant. Prefixes that do not look like the pattern are kept.
+public class DatePartitionFilter implements BucketLister.PrefixFilter {
+
+  public enum Direction {
+    // Partitions on or before the threshold, for the cleaner
+    OLDER,
+    // Partitions on or after the threshold, for the copier
+    NEWER
+  }
+
+  private final String[] boundary;
+  private final Direction direction;
+
+  public DatePartitionFilter(final String pattern, final Instant threshold, final Direction direction) {
+    this.boundary = DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC).format(threshold).split("/");
+    this.direction = direction;
+  }
+
+  // The number of prefix levels the pattern spans
+  public int depth() {
+    return boundary.length;
+  }
+
+  @Override
+  public boolean include(final String relativePrefix) {
+    final String[] segments = relativePrefix.split("/");
+    for (int i = 0; i < segments.length && i < boundary.length; i++) {
+      if (!sameShape(segments[i], boundary[i])) {
+        return true;
+      }
+      final int comparison = segments[i].substring(0, boundary[i].length()).compareTo(boundary[i]);
+      if (comparison != 0) {
+        return direction == Direction.OLDER ? comparison < 0 : comparison > 0;
+      }
+    }
+    // Every level so far is the threshold's own partition
+    return true;
+  }
+
+  // Whether the key sits below a full date path of the pattern, like 2025/10/14-220000.00/ for yyyy/MM/dd
+  public boolean isDatePartitioned(final String relativeKey) {
+    final String[] segments = relativeKey.split("/", -1);
+    if (segments.length <= boundary.length) {
+      return false;
+    }
+    for (int i = 0; i < boundary.length; i++) {
+      if (!sameShape(segments[i], boundary[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The leading date path of a date-partitioned key, like 2025/10/14-220000.00/ for yyyy/MM/dd
+  public String partitionOf(final String relativeKey) {
+    int end = 0;
+    for (int i = 0; i < boundary.length; i++) {
+      end = relativeKey.indexOf('/', end) + 1;
+    }
+    return relativeKey.substring(0, end);
+  }
+
+  // Starts with digits where the formatted threshold has digits, so the two compare as dates. Anything
+  // after that, like the time in CockroachDB's 2025/10/14-220000.00, is ignored
+  private static boolean sameShape(final String segment, final String boundarySegment) {
+    if (segment.length() < boundarySegment.length()) {
+      return false;
+    }
+    for (int i = 0; i < boundarySegment.length(); i++) {
+      if (Character.isDigit(segment.charAt(i)) != Character.isDigit(boundarySegment.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,174 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class ListingDiff {
+
+  private static final Logger LOGGER = Logger.getLogger(ListingDiff.class.getName());
+
+  public enum Status {
+    MISSING,
+    CHANGED,
+    IDENTICAL
+  }
+
+  public record Entry(S3Object source, String targetKey, Status status) {
+  }
+
+  private final S3Client targetClient;
+  private final String targetBucket;
+  private final String sourceFolder;
+  private final String targetFolder;
+  private String targetStartAfter;
+
+  private ListObjectsV2Response targetPage;
+  private Iterator<S3Object> targetObjects;
+  private S3Object nextTarget;
+  private String lastRelativeKey;
+  private long missing;
+  private long changed;
+  private long identical;
+
+  public ListingDiff(final S3Client targetClient, final String targetBucket, final String sourceFolder,
+                     final String targetFolder) {
+    this.targetClient = targetClient;
+    this.targetBucket = targetBucket;
+    this.sourceFolder = sourceFolder;
+    this.targetFolder = targetFolder;
+  }
+
+  // Matches a source listing that starts after this key, so the target listing skips the same history
+  public ListingDiff withStartAfter(final String sourceStartAfter) {
+    this.targetStartAfter = sourceStartAfter != null && sourceStartAfter.startsWith(sourceFolder)
+            ? targetFolder + sourceStartAfter.substring(sourceFolder.length())
+            : null;
+    return this;
+  }
+
+  // Source objects must arrive in listing order, across calls as well as within one,
+  // because the target listing is only ever read forwards
+  public synchronized List<Entry> classify(final List<S3Object> sourceObjects) {
+    final List<Entry> entries = new ArrayList<>(sourceObjects.size());
+    for (S3Object source : sourceObjects) {
+      if (!source.key().startsWith(sourceFolder)) {
+        continue;
+      }
+      final String relativeKey = source.key().substring(sourceFolder.length());
+      if (lastRelativeKey != null && compareKeys(relativeKey, lastRelativeKey) < 0) {
+        throw new IllegalStateException("Source keys out of listing order: " + source.key());
+      }
+      lastRelativeKey = relativeKey;
+
+      // Target keys that sort before this one have no counterpart in the source batch
+      S3Object target = peekTarget();
+      while (target != null && compareKeys(relativeTargetKey(target), relativeKey) < 0) {
+        nextTarget = null;
+        target = peekTarget();
+      }
+
+      final Status status;
+      if (target == null || !relativeTargetKey(target).equals(relativeKey)) {
+        status = Status.MISSING;
+        missing++;
+      } else {
+        nextTarget = null;
+        if (Objects.equals(source.size(), target.size())
+                && (Objects.equals(source.eTag(), target.eTag()) || isMultipartCopyOf(source, target))) {
+          status = Status.IDENTICAL;
+          identical++;
+        } else {
+          status = Status.CHANGED;
+          changed++;
+        }
+      }
+      LOGGER.log(FINE, "Object {0} is {1} in target", new Object[]{source.key(), status});
+      entries.add(new Entry(source, targetFolder + relativeKey, status));
+    }
+    return entries;
+  }
+
+  // A multipart copy's ETag ends in -<parts> and never matches the source, so only its HEAD
+  // shows which source ETag it was copied from
+  private boolean isMultipartCopyOf(final S3Object source, final S3Object target) {
+    if (source.eTag() == null || target.eTag() == null || !target.eTag().contains("-")) {
+      return false;
+    }
+    try {
+      return S3Copier.isCopyOf(source.eTag(), source.size(),
+              targetClient.headObject(HeadObjectRequest.builder().bucket(targetBucket).key(target.key()).build()));
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Error checking {0}/{1}, treating it as changed: {2}",
+              new Object[]{targetBucket, target.key(), e.getMessage()});
+      return false;
+    }
+  }
+
+  private S3Object peekTarget() {
+    while (nextTarget == null) {
+      if (targetObjects != null && targetObjects.hasNext()) {
+        nextTarget = targetObjects.next();
+      } else if (targetPage == null || Boolean.TRUE.equals(targetPage.isTruncated())) {
+        ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(targetBucket);
+        if (!targetFolder.isEmpty()) {
+          requestBuilder.prefix(targetFolder);
+        }
+        if (targetStartAfter != null) {
+          requestBuilder.startAfter(targetStartAfter);
+        }
+        if (targetPage != null) {
+          requestBuilder.continuationToken(targetPage.nextContinuationToken());
+        }
+        targetPage = targetClient.listObjectsV2(requestBuilder.build());
+        targetObjects = targetPage.contents().iterator();
+      } else {
+        return null;
+      }
+    }
+    return nextTarget;
+  }
+
+  private String relativeTargetKey(final S3Object target) {
+    return target.key().substring(targetFolder.length());
+  }
+
+  // S3 lists keys in UTF-8 byte order, which matches code point order but not String.compareTo
+  // once keys contain characters outside the basic multilingual plane
+  static int compareKeys(final String a, final String b) {
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      final int ca = a.codePointAt(i);
+      final int cb = b.codePointAt(j);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+      j += Character.charCount(cb);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  }
+
+  public synchronized long missingCount() {
+    return missing;
+  }
+
+  public synchronized long changedCount() {
+    return changed;
+  }
+
+  public synchronized long identicalCount() {
+    return identical;
+  }
+}
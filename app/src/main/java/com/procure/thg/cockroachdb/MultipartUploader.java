@@ -0,0 +1,294 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+public class MultipartUploader {
+
+  private static final Logger LOGGER = Logger.getLogger(MultipartUploader.class.getName());
+
+  // S3 limits: every part but the last must be at least 5 MB, and an upload has at most 10000 parts
+  static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+  static final int MAX_PARTS = 10000;
+  static final long DEFAULT_PART_SIZE = 64L * 1024 * 1024;
+
+  // Fetches one byte range of the source object, e.g. with a ranged GET
+  @FunctionalInterface
+  public interface RangeReader {
+    byte[] read(long offset, int length) throws IOException;
+  }
+
+  // Runs once every part is uploaded; throwing aborts the upload instead of completing it
+  @FunctionalInterface
+  public interface CompletionCheck {
+    void check() throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface PartContent {
+    byte[] get() throws IOException;
+  }
+
+  // Writes one part and returns its ETag
+  @FunctionalInterface
+  private interface PartWriter {
+    String write(int partNumber) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface RangeWriter {
+    PartWriter forRange(String uploadId, long offset, int length);
+  }
+
+  private final S3Client s3Client;
+  private final long partSize;
+  private final int partConcurrency;
+  private final int maxAttempts;
+  private boolean partChecksums;
+
+  public MultipartUploader(final S3Client s3Client) {
+    this(s3Client, DEFAULT_PART_SIZE, 4, 3);
+  }
+
+  public MultipartUploader(final S3Client s3Client, final long partSize, final int partConcurrency,
+                           final int maxAttempts) {
+    this.s3Client = s3Client;
+    this.partSize = Math.max(MIN_PART_SIZE, partSize);
+    this.partConcurrency = Math.max(1, partConcurrency);
+    this.maxAttempts = Math.max(1, maxAttempts);
+  }
+
+  // Sends Content-MD5 with every part so the target rejects a part damaged in transit
+  public MultipartUploader withPartChecksums(final boolean partChecksums) {
+    this.partChecksums = partChecksums;
+    return this;
+  }
+
+  // Reads the stream one part at a time. Each part is buffered so it can be retried on its own; with the
+  // executor's queue, at most 2 x partConcurrency parts are held in memory at once
+  public void upload(final PutObjectRequest putRequest, final InputStream content, final long contentLength)
+          throws IOException {
+    upload(putRequest, content, contentLength, () -> { });
+  }
+
+  public void upload(final PutObjectRequest putRequest, final InputStream content, final long contentLength,
+                     final CompletionCheck completionCheck) throws IOException {
+    final long size = partSize(contentLength);
+    final String uploadId = start(putRequest, contentLength, size);
+    final AtomicReferenceArray<CompletedPart> completed = new AtomicReferenceArray<>(MAX_PARTS + 1);
+    final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    int partCount = 0;
+    boolean done = false;
+    try {
+      try (BoundedExecutor workers = new BoundedExecutor("upload-part", partConcurrency)) {
+        final List<Future<?>> parts = new ArrayList<>();
+        while (failure.get() == null) {
+          final byte[] part = content.readNBytes((int) size);
+          if (part.length == 0 && partCount > 0) {
+            break;
+          }
+          final int partNumber = ++partCount;
+          if (partNumber > MAX_PARTS) {
+            throw new IOException("Object " + putRequest.key() + " needs more than " + MAX_PARTS + " parts");
+          }
+          parts.add(submitPart(workers, putRequest, partNumber, uploadWriter(putRequest, uploadId, () -> part),
+                  completed, failure));
+          if (part.length < size) {
+            break;
+          }
+        }
+        BoundedExecutor.awaitAll(parts);
+      }
+      if (failure.get() == null) {
+        completionCheck.check();
+      }
+      complete(putRequest, uploadId, completed, partCount, failure);
+      done = true;
+    } finally {
+      if (!done) {
+        abort(putRequest, uploadId);
+      }
+    }
+  }
+
+  // Each part fetches its own byte range inside the worker, so reads run as parallel as the uploads and
+  // only the parts being worked on are held in memory, whatever the object size
+  public void uploadRanges(final PutObjectRequest putRequest, final long contentLength, final RangeReader reader) {
+    writeRanges(putRequest, contentLength, (uploadId, offset, length) ->
+            uploadWriter(putRequest, uploadId, () -> reader.read(offset, length)));
+  }
+
+  // Server-side copy: the storage backend copies each range with UploadPartCopy, no payload passes through us
+  public void copyRanges(final PutObjectRequest putRequest, final long contentLength, final String sourceBucket,
+                         final String sourceKey, final String eTag) {
+    writeRanges(putRequest, contentLength, (uploadId, offset, length) -> partNumber ->
+            s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                    .sourceBucket(sourceBucket)
+                    .sourceKey(sourceKey)
+                    .copySourceRange("bytes=" + offset + "-" + (offset + length - 1))
+                    .copySourceIfMatch(eTag)
+                    .destinationBucket(putRequest.bucket())
+                    .destinationKey(putRequest.key())
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .build()).copyPartResult().eTag());
+  }
+
+  private void writeRanges(final PutObjectRequest putRequest, final long contentLength, final RangeWriter rangeWriter) {
+    final long size = partSize(contentLength);
+    final int partCount = (int) Math.max(1, (contentLength + size - 1) / size);
+    final String uploadId = start(putRequest, contentLength, size);
+    final AtomicReferenceArray<CompletedPart> completed = new AtomicReferenceArray<>(MAX_PARTS + 1);
+    final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    boolean done = false;
+    try {
+      try (BoundedExecutor workers = new BoundedExecutor("upload-part", partConcurrency)) {
+        final List<Future<?>> parts = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= partCount && failure.get() == null; partNumber++) {
+          final long offset = (partNumber - 1) * size;
+          final int length = (int) Math.min(size, contentLength - offset);
+          parts.add(submitPart(workers, putRequest, partNumber, rangeWriter.forRange(uploadId, offset, length),
+                  completed, failure));
+        }
+        BoundedExecutor.awaitAll(parts);
+      }
+      complete(putRequest, uploadId, completed, partCount, failure);
+      done = true;
+    } finally {
+      if (!done) {
+        abort(putRequest, uploadId);
+      }
+    }
+  }
+
+  private String start(final PutObjectRequest putRequest, final long contentLength, final long size) {
+    final String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+            .bucket(putRequest.bucket())
+            .key(putRequest.key())
+            .metadata(putRequest.metadata())
+            .contentType(putRequest.contentType())
+            .build()).uploadId();
+    LOGGER.log(INFO, "Started multipart upload {0} for {1}/{2}: {3} bytes in parts of {4}",
+            new Object[]{uploadId, putRequest.bucket(), putRequest.key(), contentLength, size});
+    return uploadId;
+  }
+
+  private Future<?> submitPart(final BoundedExecutor workers, final PutObjectRequest putRequest,
+                               final int partNumber, final PartWriter writer,
+                               final AtomicReferenceArray<CompletedPart> completed,
+                               final AtomicReference<RuntimeException> failure) {
+    return workers.submit(() -> {
+      try {
+        completed.set(partNumber, writePart(putRequest, partNumber, writer));
+      } catch (RuntimeException e) {
+        failure.compareAndSet(null, e);
+        throw e;
+      }
+    });
+  }
+
+  private void complete(final PutObjectRequest putRequest, final String uploadId,
+                        final AtomicReferenceArray<CompletedPart> completed, final int partCount,
+                        final AtomicReference<RuntimeException> failure) {
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    final List<CompletedPart> completedParts = new ArrayList<>(partCount);
+    for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+      completedParts.add(completed.get(partNumber));
+    }
+    s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+            .bucket(putRequest.bucket())
+            .key(putRequest.key())
+            .uploadId(uploadId)
+            .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+            .build());
+    LOGGER.log(FINE, "Completed multipart upload {0} for {1}/{2} with {3} parts",
+            new Object[]{uploadId, putRequest.bucket(), putRequest.key(), partCount});
+  }
+
+  private PartWriter uploadWriter(final PutObjectRequest putRequest, final String uploadId,
+                                  final PartContent content) {
+    return partNumber -> {
+      final byte[] part = content.get();
+      final UploadPartRequest.Builder request = UploadPartRequest.builder()
+              .bucket(putRequest.bucket())
+              .key(putRequest.key())
+              .uploadId(uploadId)
+              .partNumber(partNumber)
+              .contentLength((long) part.length);
+      if (partChecksums) {
+        request.contentMD5(ChecksumInputStream.md5Base64(part));
+      }
+      return s3Client.uploadPart(request.build(), RequestBody.fromBytes(part)).eTag();
+    };
+  }
+
+  // A retry fetches the part content again, so a failed ranged read is retried along with the upload
+  private CompletedPart writePart(final PutObjectRequest putRequest, final int partNumber, final PartWriter writer) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return CompletedPart.builder().partNumber(partNumber).eTag(writer.write(partNumber)).build();
+      } catch (IOException | RuntimeException e) {
+        if (attempt >= maxAttempts) {
+          throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+        }
+        LOGGER.log(WARNING, "Retrying part {0} of {1} after attempt {2} failed: {3}",
+                new Object[]{partNumber, putRequest.key(), attempt, e.getMessage()});
+        backOff(attempt);
+      }
+    }
+  }
+
+  private static void backOff(final int attempt) {
+    try {
+      Thread.sleep(Math.min(1000L << (attempt - 1), 30_000L));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrying part upload", e);
+    }
+  }
+
+  // Parts of an upload that is never completed or aborted are stored, and billed, indefinitely
+  private void abort(final PutObjectRequest putRequest, final String uploadId) {
+    try {
+      s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+              .bucket(putRequest.bucket())
+              .key(putRequest.key())
+              .uploadId(uploadId)
+              .build());
+      LOGGER.log(WARNING, "Aborted multipart upload {0} for {1}/{2}",
+              new Object[]{uploadId, putRequest.bucket(), putRequest.key()});
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to abort multipart upload {0} for {1}/{2}: {3}",
+              new Object[]{uploadId, putRequest.bucket(), putRequest.key(), e.getMessage()});
+    }
+  }
+
+  // Grows the part size when the configured one would need more than MAX_PARTS parts
+  long partSize(final long contentLength) {
+    final long minimum = (contentLength + MAX_PARTS - 1) / MAX_PARTS;
+    return Math.min(Math.max(partSize, minimum), Integer.MAX_VALUE - 8);
+  }
+}
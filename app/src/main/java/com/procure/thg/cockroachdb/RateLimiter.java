@@ -0,0 +1,83 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.WARNING;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Spaces requests evenly to stay under a rate. The rate is halved at most once per interval in which the
+// gateway answers 503 Slow Down, and climbs back to the configured maximum over intervals without one.
+public class RateLimiter {
+
+  private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+
+  private static final double MIN_PER_SECOND = 1.0;
+  private static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+  private final double maxPerSecond;
+  private final long intervalNanos;
+  private double perSecond;
+  private long nextFreeNanos = System.nanoTime();
+  private long lastThrottledNanos;
+  private long lastRaisedNanos;
+
+  public RateLimiter(final double maxPerSecond) {
+    this(maxPerSecond, DEFAULT_INTERVAL);
+  }
+
+  RateLimiter(final double maxPerSecond, final Duration interval) {
+    if (maxPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive: " + maxPerSecond);
+    }
+    this.maxPerSecond = maxPerSecond;
+    this.perSecond = maxPerSecond;
+    this.intervalNanos = interval.toNanos();
+    this.lastThrottledNanos = nextFreeNanos - intervalNanos;
+    this.lastRaisedNanos = lastThrottledNanos;
+  }
+
+  // Blocks until the caller's slot comes up
+  public void acquire() {
+    final long waitNanos;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final long slot = Math.max(now, nextFreeNanos);
+      nextFreeNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+      waitNanos = slot - now;
+    }
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for a request slot", e);
+      }
+    }
+  }
+
+  // Requests already in flight at the old rate come back throttled together, so they count as one signal
+  public synchronized void onThrottled() {
+    final long now = System.nanoTime();
+    if (now - lastThrottledNanos < intervalNanos) {
+      return;
+    }
+    lastThrottledNanos = now;
+    perSecond = Math.max(MIN_PER_SECOND, perSecond / 2);
+    LOGGER.log(WARNING, "Throttled by the gateway, lowering the request rate to {0}/s", perSecond);
+  }
+
+  // Recovers by a tenth of the maximum per interval of successful requests without throttling
+  public synchronized void onSuccess() {
+    final long now = System.nanoTime();
+    if (perSecond >= maxPerSecond || now - lastThrottledNanos < intervalNanos || now - lastRaisedNanos < intervalNanos) {
+      return;
+    }
+    lastRaisedNanos = now;
+    perSecond = Math.min(maxPerSecond, perSecond + maxPerSecond / 10);
+  }
+
+  public synchronized double currentRate() {
+    return perSecond;
+  }
+}
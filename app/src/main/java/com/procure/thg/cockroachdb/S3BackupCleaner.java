@@ -0,0 +1,239 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class S3BackupCleaner {
+
+  private static final Logger LOGGER = Logger.getLogger(S3BackupCleaner.class.getName());
+
+  private static final String MANIFEST = "BACKUP_MANIFEST";
+  private static final String CHECKPOINT = "BACKUP-CHECKPOINT";
+  private static final String PROGRESS_DIR = "progress/";
+  private static final String INCREMENTALS_DIR = "incrementals/";
+  // The YYYY/MM/DD-HHMMSS.ss path CockroachDB gives each full backup below its collection
+  private static final Pattern FULL_BACKUP_PATH = Pattern.compile("(^|/)(\\d{4}/\\d{2}/\\d{2}-\\d{6}\\.\\d{2}/)");
+
+  private final S3Client s3Client;
+  private final String bucket;
+  private final long thresholdSeconds;
+  private final String folder;
+  private BucketLister lister;
+
+  // A full backup plus every incremental layered on it, dated by its newest manifest
+  private static final class Chain {
+    private final String fullDirectory;
+    private final List<String> prefixes = new ArrayList<>();
+    private Instant newest = Instant.MIN;
+    private int backups;
+
+    private Chain(final String fullDirectory) {
+      this.fullDirectory = fullDirectory;
+      this.prefixes.add(fullDirectory);
+    }
+
+    private void add(final Instant written) {
+      backups++;
+      if (written.isAfter(newest)) {
+        newest = written;
+      }
+    }
+  }
+
+  public S3BackupCleaner(final S3Client s3Client, final String bucket, final long thresholdSeconds,
+                         final String folder) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+    this.thresholdSeconds = thresholdSeconds;
+    this.folder = folder != null && !folder.isEmpty() ?
+            folder.endsWith("/") ? folder : folder + "/"
+            : "";
+    this.lister = new BucketLister(s3Client);
+  }
+
+  public S3BackupCleaner withLister(final BucketLister lister) {
+    this.lister = lister;
+    return this;
+  }
+
+  public void cleanOldChains() {
+    LOGGER.log(INFO, "Starting backup chain cleaner for bucket: {0}", bucket);
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+    LOGGER.log(INFO, "Removing backup chains with no manifest written since {0}", threshold);
+
+    // Backup directory -> newest manifest or checkpoint written in it
+    final Map<String, Instant> backups = new HashMap<>();
+    try {
+      lister.forEachPage(request(folder), page -> {
+        for (S3Object s3Object : page.contents()) {
+          final String directory = backupDirectory(s3Object.key());
+          if (directory == null) {
+            continue;
+          }
+          synchronized (backups) {
+            backups.merge(directory, s3Object.lastModified(), (a, b) -> a.isAfter(b) ? a : b);
+          }
+        }
+      });
+    } catch (Exception e) {
+      // A chain missing an incremental from a partial listing could look old enough to delete
+      LOGGER.log(SEVERE, String.format("Failed to list backups in %s/%s, nothing deleted: %s",
+              bucket, folder, e.getMessage()), e);
+      return;
+    }
+
+    final List<Chain> chains = chains(backups);
+    final List<Chain> expired = new ArrayList<>();
+    for (Chain chain : chains) {
+      if (chain.newest.isBefore(threshold)) {
+        expired.add(chain);
+      } else {
+        LOGGER.log(FINE, "Keeping chain {0}: {1} backups, newest written {2}",
+                new Object[]{chain.fullDirectory, chain.backups, chain.newest});
+      }
+    }
+    LOGGER.log(INFO, "Found {0} backups in {1} chains, {2} chains expired",
+            new Object[]{backups.size(), chains.size(), expired.size()});
+
+    final BatchDeleter dataDeleter = new BatchDeleter(s3Client, bucket);
+    final BatchDeleter markerDeleter = new BatchDeleter(s3Client, bucket);
+    for (Chain chain : expired) {
+      LOGGER.log(INFO, "Deleting chain {0}: {1} backups, newest written {2}",
+              new Object[]{chain.fullDirectory, chain.backups, chain.newest});
+      deleteChain(chain, dataDeleter, markerDeleter);
+    }
+    LOGGER.log(INFO, "Backup cleaning finished. Deleted {0} chains, {1} objects, {2} failed.",
+            new Object[]{expired.size(), dataDeleter.deletedCount() + markerDeleter.deletedCount(),
+                    dataDeleter.failedCount() + markerDeleter.failedCount()});
+  }
+
+  // FOLDER may hold several collections, so incrementals/ is resolved against each collection's own root
+  private List<Chain> chains(final Map<String, Instant> backups) {
+    // Full backups first, in key order, so each is seen before anything layered on it
+    final List<String> directories = new ArrayList<>(backups.keySet());
+    directories.sort(Comparator.comparing((String directory) -> incrementalsIndex(directory) >= 0)
+            .thenComparing(Comparator.naturalOrder()));
+    final Map<String, Chain> chains = new LinkedHashMap<>();
+    for (String directory : directories) {
+      // Incrementals live under <collection>/incrementals/<full backup path>/ or, in older layouts, inside the full backup
+      final int incrementals = incrementalsIndex(directory);
+      final String fullPath = incrementals >= 0
+              ? directory.substring(0, incrementals) + directory.substring(incrementals + INCREMENTALS_DIR.length())
+              : directory;
+      Chain chain = null;
+      for (Chain candidate : chains.values()) {
+        if (fullPath.startsWith(candidate.fullDirectory)) {
+          chain = candidate;
+          break;
+        }
+      }
+      if (chain == null) {
+        // An incremental whose full backup is gone is dated on its own
+        chain = new Chain(directory);
+        if (incrementals < 0 && !directory.equals(folder)) {
+          final String root = collectionRoot(directory);
+          chain.prefixes.add(root + INCREMENTALS_DIR + directory.substring(root.length()));
+        }
+        chains.put(directory, chain);
+      }
+      chain.add(backups.get(directory));
+    }
+    return new ArrayList<>(chains.values());
+  }
+
+  private void deleteChain(final Chain chain, final BatchDeleter dataDeleter, final BatchDeleter markerDeleter) {
+    final List<String> markers = new ArrayList<>();
+    boolean failed = false;
+    for (String prefix : chain.prefixes) {
+      try {
+        final AtomicBoolean pageFailed = new AtomicBoolean();
+        lister.forEachPage(request(prefix), page -> {
+          final List<String> keys = new ArrayList<>();
+          for (S3Object s3Object : page.contents()) {
+            if (backupDirectory(s3Object.key()) != null) {
+              synchronized (markers) {
+                markers.add(s3Object.key());
+              }
+            } else {
+              keys.add(s3Object.key());
+            }
+          }
+          if (!dataDeleter.deleteKeys(keys).isEmpty()) {
+            pageFailed.set(true);
+          }
+        });
+        failed |= pageFailed.get();
+      } catch (Exception e) {
+        LOGGER.log(WARNING, "Failed to list {0} in chain {1}: {2}",
+                new Object[]{prefix, chain.fullDirectory, e.getMessage()});
+        failed = true;
+      }
+    }
+    // Manifests go last so a partly deleted chain is still recognised and retried on the next run
+    if (failed) {
+      LOGGER.log(WARNING, "Keeping manifests of chain {0}: some objects could not be deleted", chain.fullDirectory);
+      return;
+    }
+    markerDeleter.deleteKeys(markers);
+  }
+
+  private ListObjectsV2Request request(final String prefix) {
+    ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(bucket);
+    if (!prefix.isEmpty()) {
+      requestBuilder.prefix(prefix);
+    }
+    return requestBuilder.build();
+  }
+
+  // Where an incrementals/ path segment starts below FOLDER, or -1 for a full backup
+  private int incrementalsIndex(final String directory) {
+    int from = folder.length();
+    while (true) {
+      final int index = directory.indexOf(INCREMENTALS_DIR, from);
+      if (index < 0 || index == folder.length() || directory.charAt(index - 1) == '/') {
+        return index;
+      }
+      from = index + 1;
+    }
+  }
+
+  // The collection a full backup belongs to: the prefix in front of its date path, or FOLDER without one
+  private String collectionRoot(final String fullDirectory) {
+    final Matcher matcher = FULL_BACKUP_PATH.matcher(fullDirectory);
+    return matcher.find() && matcher.start(2) >= folder.length()
+            ? fullDirectory.substring(0, matcher.start(2))
+            : folder;
+  }
+
+  // The backup directory a manifest or checkpoint belongs to, or null for any other key
+  private static String backupDirectory(final String key) {
+    final int slash = key.lastIndexOf('/');
+    final String name = key.substring(slash + 1);
+    if (!name.startsWith(MANIFEST) && !name.startsWith(CHECKPOINT)) {
+      return null;
+    }
+    final String directory = key.substring(0, slash + 1);
+    // Newer versions write checkpoints under <backup>/progress/
+    return directory.endsWith("/" + PROGRESS_DIR) || directory.equals(PROGRESS_DIR)
+            ? directory.substring(0, directory.length() - PROGRESS_DIR.length())
+            : directory;
+  }
+}
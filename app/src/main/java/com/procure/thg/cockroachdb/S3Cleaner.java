@@ -7,12 +7,16 @@ import static java.util.logging.Level.WARNING;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
-import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 public class S3Cleaner {
@@ -22,6 +26,11 @@ public class S3Cleaner {
   private final S3Client s3Client;
   private final long thresholdSeconds;
   private final String folder;
+  // Negative means every key is HEADed for its last-modified metadata
+  private long headWindowSeconds = -1;
+  private int concurrency = 1;
+  private BucketLister lister;
+  private Checkpoint checkpoint;
 
   public S3Cleaner(final S3Client s3Client, final long thresholdSeconds, final String folder) {
     this.s3Client = s3Client;
@@ -29,6 +38,27 @@ public class S3Cleaner {
     this.folder = folder != null && !folder.isEmpty() ?
             folder.endsWith("/") ? folder : folder + "/"
             : null;
+    this.lister = new BucketLister(s3Client);
+  }
+
+  public S3Cleaner withLister(final BucketLister lister) {
+    this.lister = lister;
+    return this;
+  }
+
+  public S3Cleaner withCheckpoint(final Checkpoint checkpoint) {
+    this.checkpoint = checkpoint;
+    return this;
+  }
+
+  public S3Cleaner withHeadWindowSeconds(final long headWindowSeconds) {
+    this.headWindowSeconds = headWindowSeconds;
+    return this;
+  }
+
+  public S3Cleaner withConcurrency(final int concurrency) {
+    this.concurrency = concurrency;
+    return this;
   }
 
   public void cleanOldObjects() {
@@ -44,27 +74,42 @@ public class S3Cleaner {
 
     final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
     LOGGER.log(INFO, "Threshold timestamp: {0}", threshold);
+    if (headWindowSeconds >= 0) {
+      LOGGER.log(INFO, "HEAD-free mode, fetching metadata only within {0} seconds of the threshold",
+              headWindowSeconds);
+    }
+    LOGGER.log(INFO, "Processing keys with concurrency {0}", concurrency);
 
     ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder()
             .bucket(bucket);
     if (folder != null) {
       requestBuilder.prefix(folder);
     }
-    ListObjectsV2Request listObjectsV2Request = requestBuilder.build();
 
-    ListObjectsV2Response listObjectsV2Response;
-    int pageCount = 0;
-    do {
-      pageCount++;
-      try {
-        listObjectsV2Response = s3Client.listObjectsV2(listObjectsV2Request);
-        int objectCount = listObjectsV2Response.contents().size();
-        LOGGER.log(FINE, "Page {0}: Listed {1} objects", new Object[]{pageCount, objectCount});
+    final BatchDeleter deleter = new BatchDeleter(s3Client, bucket);
+    final BoundedExecutor workers = new BoundedExecutor("cleaner", concurrency);
+    final AtomicInteger pageCount = new AtomicInteger();
+    long restoredDeleted = 0;
+    long restoredFailed = 0;
+    if (checkpoint != null) {
+      checkpoint.trackCounter("deleted", deleter::deletedCount);
+      checkpoint.trackCounter("failed", deleter::failedCount);
+      restoredDeleted = checkpoint.restoredCounter("deleted");
+      restoredFailed = checkpoint.restoredCounter("failed");
+    }
+    try {
+      lister.forEachPage(requestBuilder.build(), checkpoint, page -> {
+        final int pageNumber = pageCount.incrementAndGet();
+        int objectCount = page.contents().size();
+        LOGGER.log(FINE, "Page {0}: Listed {1} objects", new Object[]{pageNumber, objectCount});
         if (objectCount == 0) {
-          LOGGER.log(INFO, "No objects found in page {0}", pageCount);
+          LOGGER.log(INFO, "No objects found in page {0}", pageNumber);
         }
 
-        for (S3Object s3Object : listObjectsV2Response.contents()) {
+        // Keys of a page are checked in parallel, but the page is finished before the next one starts
+        final List<String> expiredKeys = Collections.synchronizedList(new ArrayList<>());
+        final List<Future<?>> checks = new ArrayList<>();
+        for (S3Object s3Object : page.contents()) {
           final String key = s3Object.key();
           LOGGER.log(FINE, "Processing key: {0}", key);
 
@@ -73,97 +118,115 @@ public class S3Cleaner {
             continue;
           }
 
-          // Fetch object metadata to last-modified
-          HeadObjectRequest headRequest = HeadObjectRequest.builder()
-                  .bucket(bucket)
-                  .key(key)
-                  .build();
-          try {
-            var headResponse = s3Client.headObject(headRequest);
-            LOGGER.log(FINE, "Metadata for {0}: {1}", new Object[]{key, headResponse.metadata()});
-            String createdDate = headResponse.metadata().get("last-modified");
-            if (createdDate != null) {
-              try {
-                Instant createdInstant = Instant.parse(createdDate);
-                LOGGER.log(FINE, "last-modified for {0}: {1}", new Object[]{key, createdDate});
-                if (createdInstant.isBefore(threshold)) {
-                  deleteObject(s3Client, bucket, key);
-                } else {
-                  LOGGER.log(FINE, "Skipping {0}: last-modified {1} is after threshold {2}",
-                          new Object[]{key, createdInstant, threshold});
-                }
-              } catch (DateTimeParseException e) {
-                LOGGER.log(WARNING, "Invalid last-modified format for {0}: {1}",
-                        new Object[]{key, createdDate});
-                // Fallback to lastModified
-                Instant lastModified = s3Object.lastModified();
-                LOGGER.log(FINE, "Falling back to LastModified for {0}: {1}", new Object[]{key, lastModified});
-                if (lastModified.isBefore(threshold)) {
-                  deleteObject(s3Client, bucket, key);
-                } else {
-                  LOGGER.log(FINE, "Skipping {0}: LastModified {1} is after threshold {2}",
-                          new Object[]{key, lastModified, threshold});
-                }
-              }
-            } else {
-              // Fallback to lastModified if last-modified is missing
-              LOGGER.log(FINE, "No last-modified for {0}, using LastModified", key);
-              Instant lastModified = s3Object.lastModified();
-              LOGGER.log(FINE, "LastModified for {0}: {1}", new Object[]{key, lastModified});
-              if (lastModified.isBefore(threshold)) {
-                deleteObject(s3Client, bucket, key);
-              } else {
-                LOGGER.log(FINE, "Skipping {0}: LastModified {1} is after threshold {2}",
-                        new Object[]{key, lastModified, threshold});
-              }
-            }
-          } catch (Exception e) {
-            LOGGER.log(WARNING, "Failed to fetch metadata for {0}: {1}",
-                    new Object[]{key, e.getMessage()});
-            // Fallback to lastModified
-            Instant lastModified = s3Object.lastModified();
-            LOGGER.log(FINE, "Falling back to LastModified for {0}: {1}", new Object[]{key, lastModified});
-            if (lastModified.isBefore(threshold)) {
-              deleteObject(s3Client, bucket, key);
-            } else {
-              LOGGER.log(FINE, "Skipping {0}: LastModified {1} is after threshold {2}",
-                      new Object[]{key, lastModified, threshold});
+          checks.add(workers.submit(() -> {
+            if (isExpired(bucket, s3Object, threshold)) {
+              expiredKeys.add(key);
             }
-          }
+          }));
         }
+        BoundedExecutor.awaitAll(checks);
+        deleter.deleteKeys(expiredKeys);
 
-        if (listObjectsV2Response.isTruncated()) {
+        if (Boolean.TRUE.equals(page.isTruncated())) {
           LOGGER.log(FINE, "Page {0} truncated, using continuation token: {1}",
-                  new Object[]{pageCount, listObjectsV2Response.nextContinuationToken()});
+                  new Object[]{pageNumber, page.nextContinuationToken()});
         }
-      } catch (Exception e) {
-        LOGGER.log(WARNING, "Error listing objects in page {0}: {1}",
-                new Object[]{pageCount, e.getMessage()});
-        break; // Stop processing to avoid infinite loop on persistent errors
-      }
-
-      requestBuilder = ListObjectsV2Request.builder()
-              .bucket(bucket)
-              .continuationToken(listObjectsV2Response.nextContinuationToken());
-      if (folder != null) {
-        requestBuilder.prefix(folder);
-      }
-      listObjectsV2Request = requestBuilder.build();
-
-    } while (listObjectsV2Response != null && Boolean.TRUE.equals(listObjectsV2Response.isTruncated()));
-    LOGGER.log(INFO, "Cleaning finished. Processed {0} pages.", pageCount);
+      });
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Error listing objects in page {0}: {1}",
+              new Object[]{pageCount.get() + 1, e.getMessage()});
+      // Stop processing to avoid infinite loop on persistent errors
+    }
+    workers.close();
+    LOGGER.log(INFO, "Cleaning finished. Processed {0} pages, deleted {1} objects, {2} failed.",
+            new Object[]{pageCount.get(), restoredDeleted + deleter.deletedCount(), restoredFailed + deleter.failedCount()});
   }
 
-  private void deleteObject(final S3Client s3Client, final String bucket, final String key) {
+  private boolean isExpired(final String bucket, final S3Object s3Object, final Instant threshold) {
+    final Boolean fromListing = expiredFromListing(s3Object, threshold, headWindowSeconds);
+    if (fromListing != null) {
+      return fromListing;
+    }
+
+    // Fetch object metadata to last-modified
+    final String key = s3Object.key();
+    HeadObjectRequest headRequest = HeadObjectRequest.builder()
+            .bucket(bucket)
+            .key(key)
+            .build();
     try {
-      DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder()
-              .bucket(bucket)
-              .key(key)
-              .build();
-      s3Client.deleteObject(deleteObjectRequest);
-      LOGGER.log(FINE, "Deleted object: {0}", key);
+      var headResponse = s3Client.headObject(headRequest);
+      return expiredFromMetadata(s3Object, headResponse.metadata(), threshold);
     } catch (Exception e) {
-      LOGGER.log(WARNING, "Failed to delete object {0}: {1}", new Object[]{key, e.getMessage()});
+      LOGGER.log(WARNING, "Failed to fetch metadata for {0}: {1}",
+              new Object[]{key, e.getMessage()});
+      // Fallback to lastModified
+      LOGGER.log(FINE, "Falling back to LastModified for {0}: {1}", new Object[]{key, s3Object.lastModified()});
+      return isLastModifiedExpired(s3Object, threshold);
+    }
+  }
+
+  // Returns null when the listing alone cannot decide and the last-modified metadata has to be fetched
+  static Boolean expiredFromListing(final S3Object s3Object, final Instant threshold, final long headWindowSeconds) {
+    if (headWindowSeconds < 0) {
+      return null;
+    }
+    // HEAD-free mode: the listing timestamp decides unless it is close enough to the threshold
+    // that the copied-in last-modified metadata could change the outcome
+    final String key = s3Object.key();
+    Instant lastModified = s3Object.lastModified();
+    if (lastModified.isBefore(threshold.minusSeconds(headWindowSeconds))) {
+      LOGGER.log(FINE, "LastModified {0} for {1} is before the ambiguity window, skipping HEAD",
+              new Object[]{lastModified, key});
+      return true;
+    }
+    if (lastModified.isAfter(threshold.plusSeconds(headWindowSeconds))) {
+      LOGGER.log(FINE, "Skipping {0}: LastModified {1} is after the ambiguity window around threshold {2}",
+              new Object[]{key, lastModified, threshold});
+      return false;
+    }
+    LOGGER.log(FINE, "LastModified {0} for {1} is within the ambiguity window, fetching metadata",
+            new Object[]{lastModified, key});
+    return null;
+  }
+
+  static boolean expiredFromMetadata(final S3Object s3Object, final Map<String, String> metadata,
+                                     final Instant threshold) {
+    final String key = s3Object.key();
+    LOGGER.log(FINE, "Metadata for {0}: {1}", new Object[]{key, metadata});
+    String createdDate = metadata.get("last-modified");
+    if (createdDate != null) {
+      try {
+        Instant createdInstant = Instant.parse(createdDate);
+        LOGGER.log(FINE, "last-modified for {0}: {1}", new Object[]{key, createdDate});
+        if (createdInstant.isBefore(threshold)) {
+          return true;
+        }
+        LOGGER.log(FINE, "Skipping {0}: last-modified {1} is after threshold {2}",
+                new Object[]{key, createdInstant, threshold});
+        return false;
+      } catch (DateTimeParseException e) {
+        LOGGER.log(WARNING, "Invalid last-modified format for {0}: {1}",
+                new Object[]{key, createdDate});
+        // Fallback to lastModified
+        LOGGER.log(FINE, "Falling back to LastModified for {0}: {1}", new Object[]{key, s3Object.lastModified()});
+        return isLastModifiedExpired(s3Object, threshold);
+      }
+    } else {
+      // Fallback to lastModified if last-modified is missing
+      LOGGER.log(FINE, "No last-modified for {0}, using LastModified", key);
+      LOGGER.log(FINE, "LastModified for {0}: {1}", new Object[]{key, s3Object.lastModified()});
+      return isLastModifiedExpired(s3Object, threshold);
+    }
+  }
+
+  static boolean isLastModifiedExpired(final S3Object s3Object, final Instant threshold) {
+    Instant lastModified = s3Object.lastModified();
+    if (lastModified.isBefore(threshold)) {
+      return true;
     }
+    LOGGER.log(FINE, "Skipping {0}: LastModified {1} is after threshold {2}",
+            new Object[]{s3Object.key(), lastModified, threshold});
+    return false;
   }
 }
@@ -0,0 +1,125 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.INFO;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.logging.Logger;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+// Builds the clients for one side of a run, source or target, on the HTTP backend chosen for it
+public class S3ClientFactory {
+
+  private static final Logger LOGGER = Logger.getLogger(S3ClientFactory.class.getName());
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(6000);
+
+  public enum Backend {
+    // Blocking, one thread per request in flight; the only backend for S3Client
+    APACHE,
+    // Non-blocking event loops
+    NETTY,
+    // AWS Common Runtime: native connection management, and large GETs and PUTs split into parallel parts
+    CRT;
+
+    public static Backend parse(final String value, final Backend defaultBackend) {
+      if (value == null || value.isEmpty()) {
+        return defaultBackend;
+      }
+      try {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown HTTP client backend: " + value, e);
+      }
+    }
+
+    public String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final String side;
+  private final AwsCredentialsProvider credentialsProvider;
+  private final URI endpoint;
+  private final Region region;
+  private final Backend backend;
+  private double targetThroughputGbps = 10.0;
+  private long minimumPartSize = MultipartUploader.DEFAULT_PART_SIZE;
+
+  public S3ClientFactory(final String side, final AwsCredentialsProvider credentialsProvider, final URI endpoint,
+                         final Region region, final Backend backend) {
+    this.side = side;
+    this.credentialsProvider = credentialsProvider;
+    this.endpoint = endpoint;
+    this.region = region;
+    this.backend = backend;
+  }
+
+  // CRT only: the client sizes its connection pool to reach this throughput
+  public S3ClientFactory withTargetThroughputGbps(final double targetThroughputGbps) {
+    this.targetThroughputGbps = targetThroughputGbps;
+    return this;
+  }
+
+  // CRT only: objects above this size are split into parts of this size
+  public S3ClientFactory withMinimumPartSize(final long minimumPartSize) {
+    this.minimumPartSize = Math.max(MultipartUploader.MIN_PART_SIZE, minimumPartSize);
+    return this;
+  }
+
+  public Backend backend() {
+    return backend;
+  }
+
+  // The synchronous engine, listings and checkpoints always run on Apache, whatever the async backend
+  public S3Client syncClient(final int maxConnections) {
+    LOGGER.log(INFO, "Initialising {0} S3 client on apache with {1} connections", new Object[]{side, maxConnections});
+    return S3Client.builder()
+            .credentialsProvider(credentialsProvider)
+            .endpointOverride(endpoint)
+            .region(region)
+            .forcePathStyle(true)
+            .httpClientBuilder(ApacheHttpClient.builder()
+                    .maxConnections(maxConnections)
+                    .socketTimeout(TIMEOUT)
+                    .connectionTimeout(TIMEOUT))
+            .build();
+  }
+
+  public S3AsyncClient asyncClient(final int maxConcurrency) {
+    LOGGER.log(INFO, "Initialising async {0} S3 client on {1} with {2} requests in flight",
+            new Object[]{side, backend.label(), maxConcurrency});
+    return switch (backend) {
+      // One connection per request in flight; the Netty event loops serve all of them with a few threads
+      case NETTY -> S3AsyncClient.builder()
+              .credentialsProvider(credentialsProvider)
+              .endpointOverride(endpoint)
+              .region(region)
+              .forcePathStyle(true)
+              .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                      .maxConcurrency(maxConcurrency)
+                      .connectionAcquisitionTimeout(Duration.ofSeconds(60))
+                      .connectionTimeout(TIMEOUT)
+                      .readTimeout(TIMEOUT)
+                      .writeTimeout(TIMEOUT))
+              .build();
+      case CRT -> S3AsyncClient.crtBuilder()
+              .credentialsProvider(credentialsProvider)
+              .endpointOverride(endpoint)
+              .region(region)
+              .forcePathStyle(true)
+              .maxConcurrency(maxConcurrency)
+              .targetThroughputInGbps(targetThroughputGbps)
+              .minimumPartSizeInBytes(minimumPartSize)
+              .build();
+      case APACHE -> throw new IllegalArgumentException("The apache backend has no async client, use netty or crt for the "
+              + side + " with the async engine");
+    };
+  }
+}
@@ -1,10 +1,26 @@
 package com.procure.thg.cockroachdb;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import software.amazon.awssdk.core.ResponseInputStream;
@@ -20,7 +36,13 @@ public class S3Copier {
 
     // Threshold: 100 MB. Objects smaller than this are buffered to fix Ceph 403 issues.
     // Objects larger than this are streamed to prevent OOM.
-    private static final long MEMORY_BUFFER_THRESHOLD = 100 * 1024 * 1024;
+    static final long MEMORY_BUFFER_THRESHOLD = 100 * 1024 * 1024;
+
+    private static final long SPILL_TRANSFER_SIZE = 8 * 1024 * 1024;
+    private static final int VERIFY_ATTEMPTS = 3;
+    private static final int THROTTLED_ATTEMPTS = 5;
+    // A multipart upload gives the target an ETag of its own, so each copy records the source ETag it came from
+    static final String SOURCE_ETAG_METADATA = "source-etag";
 
     private final S3Client sourceClient;
     private final String sourceBucket;
@@ -29,6 +51,47 @@ public class S3Copier {
     private final String targetBucket;
     private final String targetFolder;
     private final boolean copyModified;
+    private BucketLister lister;
+    private Checkpoint checkpoint;
+    private int copyConcurrency = 1;
+    private boolean listingDiff;
+    private MultipartUploader multipartUploader;
+    private boolean rangedGet;
+    private boolean serverSideCopy;
+    private BufferPool bufferPool;
+    private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+    private long spillAboveBytes = -1;
+    private boolean verifyChecksums;
+    private ThroughputMeter throughputMeter = new ThroughputMeter("apache");
+    private final AtomicLong metadataRewritten = new AtomicLong();
+    private final AtomicLong metadataUnchanged = new AtomicLong();
+    private int metadataConcurrency = 1;
+    private RateLimiter metadataRateLimiter;
+    // Set while a parallel metadata sync runs, to send each source HEAD alongside its target HEAD
+    private BoundedExecutor sourceHeadWorkers;
+    private TargetIndex targetIndex;
+    private Duration targetIndexReconcileInterval = Duration.ofHours(24);
+    private final AtomicLong indexSkipped = new AtomicLong();
+    private Watermark watermark;
+    private DatePartitionFilter watermarkLayout;
+
+    // The bytes read from the source do not match the source ETag
+    static class ChecksumMismatchException extends IOException {
+        ChecksumMismatchException(final String message) {
+            super(message);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ObjectAction {
+        void apply(S3Object s3Object) throws IOException;
+    }
+
+    // Picks the recent objects of a page that the action should run on
+    @FunctionalInterface
+    private interface ObjectSelector {
+        List<S3Object> select(List<S3Object> recentObjects);
+    }
 
     public S3Copier(final S3Client sourceClient, final String sourceBucket, final String sourceFolder,
                     final S3Client targetClient, final String targetBucket, final String targetFolder,
@@ -40,6 +103,93 @@ public class S3Copier {
         this.targetBucket = targetBucket;
         this.targetFolder = suffixFolderName(targetFolder);
         this.copyModified = copyModified;
+        this.lister = new BucketLister(sourceClient);
+        this.multipartUploader = new MultipartUploader(targetClient);
+    }
+
+    public S3Copier withLister(final BucketLister lister) {
+        this.lister = lister;
+        return this;
+    }
+
+    public S3Copier withCheckpoint(final Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    public S3Copier withCopyConcurrency(final int copyConcurrency) {
+        this.copyConcurrency = copyConcurrency;
+        return this;
+    }
+
+    public S3Copier withMultipartUploader(final MultipartUploader multipartUploader) {
+        this.multipartUploader = multipartUploader;
+        return this;
+    }
+
+    public S3Copier withRangedGet(final boolean rangedGet) {
+        this.rangedGet = rangedGet;
+        return this;
+    }
+
+    public S3Copier withServerSideCopy(final boolean serverSideCopy) {
+        this.serverSideCopy = serverSideCopy;
+        return this;
+    }
+
+    public S3Copier withBufferPool(final BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    // Objects above spillAboveBytes that would otherwise be buffered are spooled to disk; -1 keeps them in memory
+    public S3Copier withSpill(final Path spillDirectory, final long spillAboveBytes) {
+        this.spillDirectory = spillDirectory;
+        this.spillAboveBytes = spillAboveBytes;
+        return this;
+    }
+
+    public S3Copier withChecksumVerification(final boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+        return this;
+    }
+
+    public S3Copier withMetadataConcurrency(final int metadataConcurrency) {
+        this.metadataConcurrency = Math.max(1, metadataConcurrency);
+        return this;
+    }
+
+    // Caps the requests per second a metadata sync sends, to protect the gateway during large backfills
+    public S3Copier withMetadataRateLimiter(final RateLimiter metadataRateLimiter) {
+        this.metadataRateLimiter = metadataRateLimiter;
+        return this;
+    }
+
+    public S3Copier withThroughputMeter(final ThroughputMeter throughputMeter) {
+        this.throughputMeter = throughputMeter;
+        return this;
+    }
+
+    // Copy listings start just below the key where the last clean run ended instead of at the start of the prefix.
+    // Only keys directly below the folder's date path move the mark: incrementals/, metadata/ or other
+    // collections sort after the dates, and a mark among them would hide every later full backup.
+    public S3Copier withWatermark(final Watermark watermark, final DatePartitionFilter layout) {
+        this.watermark = watermark;
+        this.watermarkLayout = layout;
+        return this;
+    }
+
+    public S3Copier withListingDiff(final boolean listingDiff) {
+        this.listingDiff = listingDiff;
+        return this;
+    }
+
+    // Decides from a local index of the target instead of a HEAD per key; the index is rebuilt from a
+    // full target listing whenever it is older than the reconcile interval
+    public S3Copier withTargetIndex(final TargetIndex targetIndex, final Duration reconcileInterval) {
+        this.targetIndex = targetIndex;
+        this.targetIndexReconcileInterval = reconcileInterval;
+        return this;
     }
 
     private String suffixFolderName(final String folder) {
@@ -58,56 +208,190 @@ public class S3Copier {
                 new Object[]{sourceBucket, sourceFolder, targetBucket, targetFolder});
         final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
 
+        final boolean clean;
+        if (targetIndex != null) {
+            clean = copyByTargetIndex(threshold);
+        } else if (listingDiff) {
+            clean = copyByListingDiff(threshold);
+        } else {
+            clean = copyByHead(threshold);
+        }
+        if (watermark != null) {
+            if (clean && watermark.highestKey() == null) {
+                LOGGER.log(WARNING, "No key below {0} matches the date layout, so there is no watermark to save", sourceFolder);
+            } else if (clean) {
+                watermark.save();
+            } else {
+                LOGGER.log(WARNING, "Not advancing the watermark because some objects failed to copy");
+            }
+        }
+        throughputMeter.report();
+        LOGGER.log(INFO, "Finished copying objects.");
+    }
+
+    // Streams the target listing alongside the source listing instead of sending HEADs for every key
+    private boolean copyByListingDiff(final Instant threshold) {
+        final ListingDiff diff = new ListingDiff(targetClient, targetBucket, sourceFolder, targetFolder)
+                .withStartAfter(watermark != null ? watermark.startAfter() : null);
+        // The merge join needs source pages in key order, which sharded listing does not give
+        final boolean clean = forEachRecentObject(lister.sequential(), threshold,
+                s3Object -> transferObject(s3Object.key(), targetKey(s3Object.key())),
+                "copy object", copyConcurrency, recentObjects -> {
+                    final List<S3Object> changed = new ArrayList<>();
+                    for (ListingDiff.Entry entry : diff.classify(recentObjects)) {
+                        if (entry.status() == ListingDiff.Status.MISSING
+                                || entry.status() == ListingDiff.Status.CHANGED && copyModified) {
+                            changed.add(entry.source());
+                        }
+                    }
+                    return changed;
+                }, watermark);
+        LOGGER.log(INFO, "Listing diff found {0} missing, {1} changed and {2} identical objects",
+                new Object[]{diff.missingCount(), diff.changedCount(), diff.identicalCount()});
+        return clean;
+    }
+
+    private boolean copyByHead(final Instant threshold) {
+        return forEachRecentObject(lister, threshold, s3Object -> copyObject(s3Object.key()), "copy object",
+                copyConcurrency, recentObjects -> recentObjects, watermark);
+    }
+
+    // Neither the target listing nor a target HEAD is needed for keys the index already knows
+    private boolean copyByTargetIndex(final Instant threshold) {
+        if (targetIndex.needsReconcile(targetIndexReconcileInterval)) {
+            try {
+                targetIndex.reconcile(targetClient, targetBucket, targetFolder);
+            } catch (Exception e) {
+                // A stale index could skip keys that are gone from the target, so this run checks each key instead
+                // and the index is reconciled again on the next one
+                LOGGER.log(WARNING, "Failed to reconcile the target index, checking each object with a HEAD instead: {0}",
+                        e.getMessage());
+                return copyByHead(threshold);
+            }
+        }
+        final boolean clean = forEachRecentObject(lister, threshold, s3Object -> {
+                    final String targetKey = targetKey(s3Object.key());
+                    transferObject(s3Object.key(), targetKey);
+                    targetIndex.put(targetKey, s3Object.eTag(), s3Object.size() != null ? s3Object.size() : -1);
+                }, "copy object", copyConcurrency, recentObjects -> {
+                    final List<S3Object> selected = new ArrayList<>();
+                    for (S3Object s3Object : recentObjects) {
+                        if (!s3Object.key().startsWith(sourceFolder)) {
+                            LOGGER.log(WARNING, "Object key {0} does not start with expected prefix {1}, skipping",
+                                    new Object[]{s3Object.key(), sourceFolder});
+                        } else if (indexedCopyIsCurrent(s3Object)) {
+                            indexSkipped.incrementAndGet();
+                        } else {
+                            selected.add(s3Object);
+                        }
+                    }
+                    return selected;
+                }, watermark);
+        LOGGER.log(INFO, "Target index skipped {0} objects already copied", indexSkipped.get());
+        return clean;
+    }
+
+    private boolean indexedCopyIsCurrent(final S3Object source) {
+        final TargetIndex.Entry indexed = targetIndex.get(targetKey(source.key()));
+        if (indexed == null) {
+            return false;
+        }
+        if (!copyModified) {
+            return true;
+        }
+        return source.eTag() != null && source.eTag().equals(indexed.eTag())
+                && source.size() != null && source.size() == indexed.size();
+    }
+
+    public long indexSkippedCount() {
+        return indexSkipped.get();
+    }
+
+    private String targetKey(final String sourceKey) {
+        return targetFolder + sourceKey.substring(sourceFolder.length());
+    }
+
+    // Returns true when the listing completed and the action succeeded for every selected object
+    private boolean forEachRecentObject(final BucketLister sourceLister, final Instant threshold, final ObjectAction action,
+                                        final String actionName, final int concurrency, final ObjectSelector selector,
+                                        final Watermark pageWatermark) {
         ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder()
                 .bucket(sourceBucket)
                 .encodingType(EncodingType.URL);
         if (!sourceFolder.isEmpty()) {
             requestBuilder.prefix(sourceFolder);
         }
-        ListObjectsV2Request listObjectsV2Request = requestBuilder.build();
-
-        ListObjectsV2Response listObjectsV2Response;
-        try {
-            listObjectsV2Response = sourceClient.listObjectsV2(listObjectsV2Request);
-        } catch (Exception e) {
-            LOGGER.log(SEVERE, String.format("Failed to list objects in %s/%s: %s", sourceBucket, sourceFolder, e.getMessage()), e);
-            return;
+        final String startAfter = pageWatermark != null ? pageWatermark.startAfter() : null;
+        if (startAfter != null) {
+            requestBuilder.startAfter(startAfter);
         }
 
-        do {
-            for (S3Object s3Object : listObjectsV2Response.contents()) {
-                final String key = s3Object.key();
-                if (s3Object.lastModified().isAfter(threshold)) {
-                    try {
-                        copyObject(key);
-                    } catch (Exception e) {
-                        LOGGER.log(SEVERE, String.format("Failed to copy object %s: %s", key, e.getMessage()), e);
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        long restoredProcessed = 0;
+        long restoredFailed = 0;
+        if (checkpoint != null) {
+            checkpoint.trackCounter("processed", processed::get);
+            checkpoint.trackCounter("failed", failed::get);
+            restoredProcessed = checkpoint.restoredCounter("processed");
+            restoredFailed = checkpoint.restoredCounter("failed");
+        }
+        boolean listed = true;
+        try (BoundedExecutor workers = new BoundedExecutor("copier", concurrency)) {
+            sourceLister.forEachPage(requestBuilder.build(), checkpoint, page -> {
+                final List<S3Object> recentObjects = new ArrayList<>();
+                for (S3Object s3Object : page.contents()) {
+                    if (s3Object.lastModified().isAfter(threshold)) {
+                        recentObjects.add(s3Object);
                     }
                 }
-            }
-
-            if (Boolean.TRUE.equals(listObjectsV2Response.isTruncated())) {
-                requestBuilder = ListObjectsV2Request.builder()
-                        .bucket(sourceBucket)
-                        .encodingType(EncodingType.URL)
-                        .continuationToken(listObjectsV2Response.nextContinuationToken());
-                if (!sourceFolder.isEmpty()) {
-                    requestBuilder.prefix(sourceFolder);
+                final List<Future<?>> transfers = new ArrayList<>();
+                for (S3Object s3Object : selector.select(recentObjects)) {
+                    final String key = s3Object.key();
+                    // Blocks while every worker is busy, so listing never runs far ahead of the transfers
+                    transfers.add(workers.submit(() -> {
+                        try {
+                            action.apply(s3Object);
+                            processed.incrementAndGet();
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            LOGGER.log(SEVERE, String.format("Failed to %s %s: %s", actionName, key, e.getMessage()), e);
+                        }
+                    }));
                 }
-                listObjectsV2Request = requestBuilder.build();
-
-                try {
-                    listObjectsV2Response = sourceClient.listObjectsV2(listObjectsV2Request);
-                } catch (Exception e) {
-                    LOGGER.log(SEVERE, String.format("Failed to list next page of objects in %s/%s: %s", sourceBucket, sourceFolder, e.getMessage()), e);
-                    break;
+                // The page only counts as done for the checkpoint once all of its transfers have finished
+                BoundedExecutor.awaitAll(transfers);
+                if (pageWatermark != null) {
+                    observeDatePartitioned(pageWatermark, page.contents());
                 }
+            });
+        } catch (Exception e) {
+            LOGGER.log(SEVERE, String.format("Failed to list objects in %s/%s: %s", sourceBucket, sourceFolder, e.getMessage()), e);
+            listed = false;
+        }
+        LOGGER.log(INFO, "Processed {0} recent objects, {1} failed",
+                new Object[]{restoredProcessed + processed.get(), restoredFailed + failed.get()});
+        return listed && restoredFailed + failed.get() == 0;
+    }
+
+    // Pages are in key order, so the last date-partitioned key is the page's highest. Only its backup
+    // directory is observed: CockroachDB writes BACKUP_MANIFEST and progress/ last, and they sort before data/
+    private void observeDatePartitioned(final Watermark pageWatermark, final List<S3Object> objects) {
+        for (int i = objects.size() - 1; i >= 0; i--) {
+            final String key = objects.get(i).key();
+            if (!key.startsWith(sourceFolder)) {
+                continue;
             }
-        } while (Boolean.TRUE.equals(listObjectsV2Response.isTruncated()));
-        LOGGER.log(INFO, "Finished copying objects.");
+            final String relativeKey = key.substring(sourceFolder.length());
+            if (watermarkLayout.isDatePartitioned(relativeKey)) {
+                pageWatermark.observe(sourceFolder + watermarkLayout.partitionOf(relativeKey));
+                return;
+            }
+        }
     }
 
-    private void copyObject(final String sourceKey) throws IOException {
+    // Also used by AsyncS3Copier for the objects too large to buffer
+    void copyObject(final String sourceKey) throws IOException {
         if (!sourceKey.startsWith(sourceFolder)) {
             LOGGER.log(WARNING, "Object key {0} does not start with expected prefix {1}, skipping",
                     new Object[]{sourceKey, sourceFolder});
@@ -135,10 +419,7 @@ public class S3Copier {
             final HeadObjectResponse sourceHead = sourceClient.headObject(
                     HeadObjectRequest.builder().bucket(sourceBucket).key(sourceKey).build());
 
-            final boolean sameETag = sourceHead.eTag() != null && targetHead.eTag() != null && sourceHead.eTag().equals(targetHead.eTag());
-            final boolean sameSize = sourceHead.contentLength() == targetHead.contentLength();
-
-            if (sameETag && sameSize) {
+            if (isCopyOf(sourceHead.eTag(), sourceHead.contentLength(), targetHead)) {
                 LOGGER.log(FINE, "Object {0}/{1} unchanged, skipping (copyModified=true)", new Object[]{targetBucket, targetKey});
                 shouldCopy = false;
             }
@@ -152,6 +433,36 @@ public class S3Copier {
 
         if (!shouldCopy) return;
 
+        transferObject(sourceKey, targetKey);
+    }
+
+    // True when the target holds this source version, by its own ETag or by the one recorded when it was copied
+    static boolean isCopyOf(final String sourceETag, final Long sourceSize, final HeadObjectResponse targetHead) {
+        return sourceETag != null && Objects.equals(sourceSize, targetHead.contentLength())
+                && (sourceETag.equals(targetHead.eTag()) || sourceETag.equals(targetHead.metadata().get(SOURCE_ETAG_METADATA)));
+    }
+
+    private void transferObject(final String sourceKey, final String targetKey) throws IOException {
+        if (serverSideCopy) {
+            copyServerSide(sourceKey, targetKey);
+            return;
+        }
+        // A mismatch means the bytes were damaged on the way in, so the whole transfer is worth repeating
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transferOnce(sourceKey, targetKey);
+                return;
+            } catch (ChecksumMismatchException e) {
+                if (attempt >= VERIFY_ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.log(WARNING, "Retrying copy of {0}/{1} after attempt {2}: {3}",
+                        new Object[]{sourceBucket, sourceKey, attempt, e.getMessage()});
+            }
+        }
+    }
+
+    private void transferOnce(final String sourceKey, final String targetKey) throws IOException {
         GetObjectRequest getRequest = GetObjectRequest.builder()
                 .bucket(sourceBucket)
                 .key(sourceKey)
@@ -165,6 +476,9 @@ public class S3Copier {
             if (objectStream.response().lastModified() != null) {
                 metadata.put("x-amz-meta-last-modified", objectStream.response().lastModified().toString());
             }
+            if (objectStream.response().eTag() != null) {
+                metadata.put(SOURCE_ETAG_METADATA, objectStream.response().eTag());
+            }
 
             PutObjectRequest.Builder builder = PutObjectRequest.builder()
                     .bucket(targetBucket)
@@ -177,31 +491,59 @@ public class S3Copier {
                 builder.contentType(contentType);
             }
             PutObjectRequest putRequest = builder.build();
+            final String sourceETag = objectStream.response().eTag();
+            // Checksums are computed as the bytes pass through, on every path that reads the whole object here
+            final InputStream content = verifyChecksums ? new ChecksumInputStream(objectStream) : objectStream;
 
             // HYBRID STRATEGY:
             // If file is small (< 100MB), buffer it to memory. This allows AWS SDK to calculate checksums
             // and handle retries safely, which prevents the Ceph 403/Missing Auth errors.
             if (contentLength != null && contentLength >= 0 && contentLength < MEMORY_BUFFER_THRESHOLD) {
-                byte[] objectContent = objectStream.readAllBytes();
-                targetClient.putObject(putRequest, RequestBody.fromBytes(objectContent));
+                if (spillAboveBytes >= 0 && contentLength > spillAboveBytes) {
+                    spillAndUpload(putRequest, content, sourceETag);
+                } else if (bufferPool != null) {
+                    // Blocks while the shared budget is used up by other copies
+                    try (BufferPool.Lease lease = bufferPool.acquire(contentLength)) {
+                        lease.fill(content, contentLength);
+                        targetClient.putObject(verified(putRequest, content, sourceETag), lease.requestBody());
+                    }
+                } else {
+                    byte[] objectContent = content.readAllBytes();
+                    targetClient.putObject(verified(putRequest, content, sourceETag), RequestBody.fromBytes(objectContent));
+                }
+                throughputMeter.record(contentLength);
 
                 LOGGER.log(FINE, "Copied object (buffered) from {0}/{1} to {2}/{3} [Size: {4}]",
                         new Object[]{sourceBucket, sourceKey, targetBucket, targetKey, contentLength});
             } else {
                 // If file is large (or length unknown), stream it to avoid OOM.
-                // Note: If a network error occurs during this large transfer, retries might fail
-                // or cause 403s on Ceph, but we cannot risk crashing the JVM.
+                // Large objects go up as a multipart upload: each part is buffered on its own, so a
+                // network error only retries that part instead of the whole transfer.
                 LOGGER.log(INFO, "Streaming large object (>100MB) from {0}/{1} to {2}/{3} [Size: {4}]",
                         new Object[]{sourceBucket, sourceKey, targetBucket, targetKey, contentLength});
 
-                if (contentLength != null) {
-                    targetClient.putObject(putRequest, RequestBody.fromInputStream(objectStream, contentLength));
+                // Parallel ranged reads arrive out of order, so a verified copy of a single-part object is
+                // streamed instead and its MD5 checked against the source ETag before the upload completes
+                final boolean checkMd5 = verifyChecksums && ChecksumInputStream.isMd5ETag(sourceETag);
+                if (contentLength != null && rangedGet && !checkMd5) {
+                    // Parts are fetched with their own ranged GETs, so drop this stream without draining it
+                    final String eTag = objectStream.response().eTag();
+                    objectStream.abort();
+                    multipartUploader.uploadRanges(putRequest, contentLength,
+                            (offset, length) -> readRange(sourceKey, eTag, offset, length));
+                    throughputMeter.record(contentLength);
+                } else if (contentLength != null) {
+                    multipartUploader.upload(putRequest, content, contentLength, () -> {
+                        if (content instanceof ChecksumInputStream checked) {
+                            checkMd5(checked, sourceETag, putRequest.key());
+                        }
+                    });
+                    throughputMeter.record(contentLength);
                 } else {
-                    // Fallback if length is missing (rare in S3)
+                    // Fallback if length is missing (rare in S3): spool to disk to learn the length
                     LOGGER.log(WARNING, "Warning: object length is missing");
 
-                    byte[] content = objectStream.readAllBytes();
-                    targetClient.putObject(putRequest, RequestBody.fromBytes(content));
+                    throughputMeter.record(spillAndUpload(putRequest, content, sourceETag));
                 }
             }
         } catch (Exception e) {
@@ -211,60 +553,174 @@ public class S3Copier {
         }
     }
 
-    public void syncMetaDataRecentObjects(final long thresholdSeconds) {
-        LOGGER.log(INFO, "Starting to sync meta data objects from {0}/{1} to {2}/{3}",
-                new Object[]{sourceBucket, sourceFolder, targetBucket, targetFolder});
-        final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+    // Source and target share a cluster, so the backend copies the bytes and none pass through this process.
+    // The copy requests run on the target client, whose credentials must be able to read the source bucket.
+    private void copyServerSide(final String sourceKey, final String targetKey) {
+        try {
+            final HeadObjectResponse sourceHead = sourceClient.headObject(
+                    HeadObjectRequest.builder().bucket(sourceBucket).key(sourceKey).build());
 
-        ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder()
-                .bucket(sourceBucket)
-                .encodingType(EncodingType.URL);
-        if (!sourceFolder.isEmpty()) {
-            requestBuilder.prefix(sourceFolder);
-        }
-        ListObjectsV2Request listObjectsV2Request = requestBuilder.build();
+            Map<String, String> metadata = new HashMap<>(sourceHead.metadata());
+            if (sourceHead.lastModified() != null) {
+                metadata.put("x-amz-meta-last-modified", sourceHead.lastModified().toString());
+            }
+            if (sourceHead.eTag() != null) {
+                metadata.put(SOURCE_ETAG_METADATA, sourceHead.eTag());
+            }
 
-        ListObjectsV2Response listObjectsV2Response;
-        try {
-            listObjectsV2Response = sourceClient.listObjectsV2(listObjectsV2Request);
+            final Long contentLength = sourceHead.contentLength();
+            if (contentLength != null && contentLength < MEMORY_BUFFER_THRESHOLD) {
+                targetClient.copyObject(CopyObjectRequest.builder()
+                        .sourceBucket(sourceBucket)
+                        .sourceKey(sourceKey)
+                        .destinationBucket(targetBucket)
+                        .destinationKey(targetKey)
+                        .copySourceIfMatch(sourceHead.eTag())
+                        .metadataDirective(MetadataDirective.REPLACE)
+                        .metadata(metadata)
+                        .contentType(sourceHead.contentType())
+                        .build());
+                throughputMeter.record(contentLength);
+                LOGGER.log(FINE, "Copied object (server-side) from {0}/{1} to {2}/{3} [Size: {4}]",
+                        new Object[]{sourceBucket, sourceKey, targetBucket, targetKey, contentLength});
+            } else {
+                // Large objects are copied range by range so the backend works on several parts at once
+                LOGGER.log(INFO, "Copying large object (server-side) from {0}/{1} to {2}/{3} [Size: {4}]",
+                        new Object[]{sourceBucket, sourceKey, targetBucket, targetKey, contentLength});
+                multipartUploader.copyRanges(PutObjectRequest.builder()
+                                .bucket(targetBucket)
+                                .key(targetKey)
+                                .metadata(metadata)
+                                .contentType(sourceHead.contentType())
+                                .build(),
+                        contentLength != null ? contentLength : 0, sourceBucket, sourceKey, sourceHead.eTag());
+                throughputMeter.record(contentLength != null ? contentLength : 0);
+            }
         } catch (Exception e) {
-            LOGGER.log(SEVERE, String.format("Failed to list objects in %s/%s: %s", sourceBucket, sourceFolder, e.getMessage()), e);
-            return;
+            LOGGER.log(SEVERE, String.format("Failed to copy object server-side from %s/%s to %s/%s: %s",
+                    sourceBucket, sourceKey, targetBucket, targetKey, e.getMessage()), e);
+            throw e;
         }
+    }
 
-        do {
-            for (S3Object s3Object : listObjectsV2Response.contents()) {
-                final String key = s3Object.key();
-                if (s3Object.lastModified().isAfter(threshold)) {
-                    try {
-                        syncObjectMetadata(key);
-                    } catch (Exception e) {
-                        LOGGER.log(SEVERE, String.format("Failed to copy object %s: %s", key, e.getMessage()), e);
-                    }
+    // The spilled file gives the upload a known length and can be re-read for retries, without the payload on the heap
+    // Returns the number of bytes copied
+    private long spillAndUpload(final PutObjectRequest putRequest, final InputStream content, final String sourceETag)
+            throws IOException {
+        final Path spill = Files.createTempFile(spillDirectory, "s3copier-", ".spill");
+        try {
+            long length = 0;
+            try (FileChannel channel = FileChannel.open(spill, StandardOpenOption.WRITE)) {
+                final ReadableByteChannel source = Channels.newChannel(content);
+                long transferred;
+                while ((transferred = channel.transferFrom(source, length, SPILL_TRANSFER_SIZE)) > 0) {
+                    length += transferred;
                 }
             }
+            LOGGER.log(FINE, "Spilled {0} bytes of {1}/{2} to {3}",
+                    new Object[]{length, putRequest.bucket(), putRequest.key(), spill});
 
-            if (Boolean.TRUE.equals(listObjectsV2Response.isTruncated())) {
-                requestBuilder = ListObjectsV2Request.builder()
-                        .bucket(sourceBucket)
-                        .encodingType(EncodingType.URL)
-                        .continuationToken(listObjectsV2Response.nextContinuationToken());
-                if (!sourceFolder.isEmpty()) {
-                    requestBuilder.prefix(sourceFolder);
+            final PutObjectRequest verifiedRequest = verified(putRequest, content, sourceETag);
+            if (length < MEMORY_BUFFER_THRESHOLD) {
+                targetClient.putObject(verifiedRequest, RequestBody.fromFile(spill));
+            } else {
+                try (FileChannel channel = FileChannel.open(spill, StandardOpenOption.READ)) {
+                    multipartUploader.uploadRanges(verifiedRequest, length, (offset, size) -> readSpill(channel, offset, size));
                 }
-                listObjectsV2Request = requestBuilder.build();
+            }
+            return length;
+        } finally {
+            Files.deleteIfExists(spill);
+        }
+    }
 
-                try {
-                    listObjectsV2Response = sourceClient.listObjectsV2(listObjectsV2Request);
-                } catch (Exception e) {
-                    LOGGER.log(SEVERE, String.format("Failed to list next page of objects in %s/%s: %s", sourceBucket, sourceFolder, e.getMessage()), e);
-                    break;
-                }
+    // Checks the bytes read against the source ETag, then has the target check what it receives with
+    // Content-MD5 and stores the CRC32C so the copy can be verified later without reading the source
+    static PutObjectRequest verified(final PutObjectRequest putRequest, final InputStream content,
+                                     final String sourceETag) throws ChecksumMismatchException {
+        if (!(content instanceof ChecksumInputStream checked)) {
+            return putRequest;
+        }
+        checkMd5(checked, sourceETag, putRequest.key());
+        final Map<String, String> metadata = new HashMap<>(putRequest.metadata());
+        metadata.put("crc32c", checked.crc32cHex());
+        return putRequest.toBuilder()
+                .metadata(metadata)
+                .contentMD5(checked.md5Base64())
+                .build();
+    }
+
+    private static void checkMd5(final ChecksumInputStream checked, final String sourceETag, final String key)
+            throws ChecksumMismatchException {
+        if (!ChecksumInputStream.isMd5ETag(sourceETag)) {
+            LOGGER.log(FINE, "Source ETag {0} of {1} is not an MD5, only the target checks the upload",
+                    new Object[]{sourceETag, key});
+            return;
+        }
+        if (!checked.md5Hex().equalsIgnoreCase(ChecksumInputStream.unquote(sourceETag))) {
+            throw new ChecksumMismatchException(String.format("MD5 %s of %s does not match source ETag %s",
+                    checked.md5Hex(), key, sourceETag));
+        }
+    }
+
+    // Positional reads leave the channel position alone, so parts can read concurrently
+    private static byte[] readSpill(final FileChannel channel, final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Spill file ended at " + (offset + buffer.position()));
+            }
+        }
+        return buffer.array();
+    }
+
+    private byte[] readRange(final String sourceKey, final String eTag, final long offset, final int length)
+            throws IOException {
+        // If-Match makes a source object rewritten mid-copy fail the part instead of mixing two versions
+        final byte[] range = sourceClient.getObjectAsBytes(GetObjectRequest.builder()
+                .bucket(sourceBucket)
+                .key(sourceKey)
+                .range("bytes=" + offset + "-" + (offset + length - 1))
+                .ifMatch(eTag)
+                .build()).asByteArray();
+        if (range.length != length) {
+            throw new IOException(String.format("Expected %d bytes at offset %d of %s/%s but got %d",
+                    length, offset, sourceBucket, sourceKey, range.length));
+        }
+        return range;
+    }
+
+    public void syncMetaDataRecentObjects(final long thresholdSeconds) {
+        LOGGER.log(INFO, "Starting to sync meta data objects from {0}/{1} to {2}/{3}",
+                new Object[]{sourceBucket, sourceFolder, targetBucket, targetFolder});
+        final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+
+        if (metadataConcurrency > 1) {
+            LOGGER.log(INFO, "Syncing metadata of {0} objects at a time", metadataConcurrency);
+            sourceHeadWorkers = new BoundedExecutor("source-head", metadataConcurrency);
+        }
+        try {
+            forEachRecentObject(lister, threshold, s3Object -> syncObjectMetadata(s3Object.key()),
+                    "sync metadata for object", metadataConcurrency, recentObjects -> recentObjects, null);
+        } finally {
+            if (sourceHeadWorkers != null) {
+                sourceHeadWorkers.close();
+                sourceHeadWorkers = null;
             }
-        } while (Boolean.TRUE.equals(listObjectsV2Response.isTruncated()));
+        }
+        LOGGER.log(INFO, "Metadata sync rewrote {0} objects, {1} already up to date",
+                new Object[]{metadataRewritten.get(), metadataUnchanged.get()});
         LOGGER.log(INFO, "Finished copying objects.");
     }
 
+    public long metadataRewrittenCount() {
+        return metadataRewritten.get();
+    }
+
+    public long metadataUnchangedCount() {
+        return metadataUnchanged.get();
+    }
+
     public void syncObjectMetadata(final String sourceKey) {
         if (!sourceKey.startsWith(sourceFolder)) {
             LOGGER.log(WARNING, "Object key {0} does not start with expected prefix {1}, skipping",
@@ -275,13 +731,32 @@ public class S3Copier {
         String relativeKey = sourceKey.substring(sourceFolder.length());
         String targetKey = targetFolder + relativeKey;
 
+        // Fetch source object metadata from S3
+        HeadObjectRequest sourceHeadRequest = HeadObjectRequest.builder()
+                .bucket(sourceBucket)
+                .key(sourceKey)
+                .build();
+        // In a parallel sync both HEADs are in flight at once, at the cost of a wasted source HEAD for missing targets
+        final BoundedExecutor headWorkers = sourceHeadWorkers;
+        final CompletableFuture<HeadObjectResponse> parallelSourceHead = new CompletableFuture<>();
+        if (headWorkers != null) {
+            headWorkers.submit(() -> {
+                try {
+                    parallelSourceHead.complete(throttled(() -> sourceClient.headObject(sourceHeadRequest)));
+                } catch (Exception e) {
+                    parallelSourceHead.completeExceptionally(e);
+                }
+            });
+        }
+
         // Check if the target object exists in Ceph
         HeadObjectRequest headRequest = HeadObjectRequest.builder()
                 .bucket(targetBucket)
                 .key(targetKey)
                 .build();
+        final HeadObjectResponse targetHeadResponse;
         try {
-            targetClient.headObject(headRequest);
+            targetHeadResponse = throttled(() -> targetClient.headObject(headRequest));
         } catch (NoSuchKeyException e) {
             LOGGER.log(FINE, "Object {0}/{1} does not exist in target bucket, skipping",
                     new Object[]{targetBucket, targetKey});
@@ -292,23 +767,39 @@ public class S3Copier {
             return;
         }
 
-        // Fetch source object metadata from S3
-        HeadObjectRequest sourceHeadRequest = HeadObjectRequest.builder()
-                .bucket(sourceBucket)
-                .key(sourceKey)
-                .build();
         HeadObjectResponse sourceHeadResponse;
         try {
-            sourceHeadResponse = sourceClient.headObject(sourceHeadRequest);
+            sourceHeadResponse = headWorkers != null
+                    ? parallelSourceHead.join()
+                    : throttled(() -> sourceClient.headObject(sourceHeadRequest));
         } catch (Exception e) {
+            final Throwable cause = Throwables.cause(e);
             LOGGER.log(SEVERE, String.format("Failed to fetch metadata for source object %s/%s: %s",
-                    sourceBucket, sourceKey, e.getMessage()), e);
+                    sourceBucket, sourceKey, cause.getMessage()), cause);
             return;
         }
 
         // Prepare metadata (excluding lastModified)
         Map<String, String> metadata = new HashMap<>(sourceHeadResponse.metadata());
         metadata.put("x-amz-meta-last-modified", sourceHeadResponse.lastModified().toString());
+        // The checksum and source ETag stored by the copy still describe the content, which a metadata rewrite leaves alone
+        final String crc32c = targetHeadResponse.metadata().get("crc32c");
+        if (crc32c != null) {
+            metadata.putIfAbsent("crc32c", crc32c);
+        }
+        // The target's value names the source version it was copied from, so it wins over any the source carries
+        final String copiedFrom = targetHeadResponse.metadata().get(SOURCE_ETAG_METADATA);
+        if (copiedFrom != null) {
+            metadata.put(SOURCE_ETAG_METADATA, copiedFrom);
+        }
+
+        // A self-copy can rewrite the whole object on Ceph, so only send one when the metadata would change
+        if (metadata.equals(targetHeadResponse.metadata())) {
+            metadataUnchanged.incrementAndGet();
+            LOGGER.log(FINE, "Metadata of {0}/{1} already matches {2}/{3}, skipping",
+                    new Object[]{targetBucket, targetKey, sourceBucket, sourceKey});
+            return;
+        }
 
         // Use CopyObject to update metadata in-place on Ceph
         CopyObjectRequest copyRequest = CopyObjectRequest.builder()
@@ -321,7 +812,8 @@ public class S3Copier {
                 .build();
 
         try {
-            targetClient.copyObject(copyRequest);
+            throttled(() -> targetClient.copyObject(copyRequest));
+            metadataRewritten.incrementAndGet();
             LOGGER.log(FINE, "Synced metadata for object {0}/{1} using source metadata from {2}/{3}",
                     new Object[]{targetBucket, targetKey, sourceBucket, sourceKey});
         } catch (Exception e) {
@@ -330,4 +822,28 @@ public class S3Copier {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    private <T> T throttled(final Supplier<T> request) {
+        if (metadataRateLimiter == null) {
+            return request.get();
+        }
+        for (int attempt = 1; ; attempt++) {
+            metadataRateLimiter.acquire();
+            try {
+                final T response = request.get();
+                metadataRateLimiter.onSuccess();
+                return response;
+            } catch (S3Exception e) {
+                // 503 Slow Down outlasted the SDK's own retries, so lower the rate and send the request again at it
+                if (e.statusCode() != 503) {
+                    throw e;
+                }
+                metadataRateLimiter.onThrottled();
+                if (attempt >= THROTTLED_ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.log(FINE, "Retrying throttled request after attempt {0}", attempt);
+            }
+        }
+    }
+}
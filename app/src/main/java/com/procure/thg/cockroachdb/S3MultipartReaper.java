@@ -0,0 +1,156 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+
+public class S3MultipartReaper {
+
+  private static final Logger LOGGER = Logger.getLogger(S3MultipartReaper.class.getName());
+
+  private final S3Client s3Client;
+  private final String bucket;
+  private final long thresholdSeconds;
+  private final String folder;
+  private int concurrency = 1;
+
+  private final AtomicLong aborted = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong partsReclaimed = new AtomicLong();
+  private final AtomicLong bytesReclaimed = new AtomicLong();
+
+  public S3MultipartReaper(final S3Client s3Client, final String bucket, final long thresholdSeconds,
+                           final String folder) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+    this.thresholdSeconds = thresholdSeconds;
+    this.folder = folder != null && !folder.isEmpty() ?
+            folder.endsWith("/") ? folder : folder + "/"
+            : null;
+  }
+
+  public S3MultipartReaper withConcurrency(final int concurrency) {
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  public void abortStaleUploads() {
+    LOGGER.log(INFO, "Starting multipart upload reaper for bucket: {0}", bucket);
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+    LOGGER.log(INFO, "Aborting uploads initiated before {0}", threshold);
+
+    ListMultipartUploadsRequest.Builder requestBuilder = ListMultipartUploadsRequest.builder().bucket(bucket);
+    if (folder != null) {
+      requestBuilder.prefix(folder);
+    }
+
+    int pageCount = 0;
+    try (BoundedExecutor workers = new BoundedExecutor("reaper", concurrency)) {
+      ListMultipartUploadsResponse response;
+      do {
+        pageCount++;
+        try {
+          response = s3Client.listMultipartUploads(requestBuilder.build());
+        } catch (Exception e) {
+          LOGGER.log(WARNING, "Error listing multipart uploads in page {0}: {1}",
+                  new Object[]{pageCount, e.getMessage()});
+          break;
+        }
+
+        final List<Future<?>> aborts = new ArrayList<>();
+        for (MultipartUpload upload : response.uploads()) {
+          if (upload.initiated() != null && upload.initiated().isBefore(threshold)) {
+            aborts.add(workers.submit(() -> abortUpload(upload)));
+          } else {
+            LOGGER.log(FINE, "Skipping upload {0} for {1}: initiated {2}",
+                    new Object[]{upload.uploadId(), upload.key(), upload.initiated()});
+          }
+        }
+        BoundedExecutor.awaitAll(aborts);
+
+        requestBuilder = requestBuilder
+                .keyMarker(response.nextKeyMarker())
+                .uploadIdMarker(response.nextUploadIdMarker());
+      } while (Boolean.TRUE.equals(response.isTruncated()));
+    }
+
+    LOGGER.log(INFO, "Multipart reaping finished. Processed {0} pages, aborted {1} uploads, {2} failed. Reclaimed {3} parts, {4} bytes.",
+            new Object[]{pageCount, aborted.get(), failed.get(), partsReclaimed.get(), bytesReclaimed.get()});
+  }
+
+  private void abortUpload(final MultipartUpload upload) {
+    long parts = 0;
+    long bytes = 0;
+    try {
+      // Parts are counted before the abort because they are gone afterwards
+      ListPartsRequest.Builder partsRequest = ListPartsRequest.builder()
+              .bucket(bucket)
+              .key(upload.key())
+              .uploadId(upload.uploadId());
+      ListPartsResponse partsResponse;
+      do {
+        partsResponse = s3Client.listParts(partsRequest.build());
+        for (Part part : partsResponse.parts()) {
+          parts++;
+          bytes += part.size() != null ? part.size() : 0;
+        }
+        partsRequest = partsRequest.partNumberMarker(partsResponse.nextPartNumberMarker());
+      } while (Boolean.TRUE.equals(partsResponse.isTruncated()));
+    } catch (Exception e) {
+      LOGGER.log(FINE, "Failed to list parts of upload {0} for {1}: {2}",
+              new Object[]{upload.uploadId(), upload.key(), e.getMessage()});
+    }
+
+    try {
+      s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+              .bucket(bucket)
+              .key(upload.key())
+              .uploadId(upload.uploadId())
+              .build());
+      aborted.incrementAndGet();
+      partsReclaimed.addAndGet(parts);
+      bytesReclaimed.addAndGet(bytes);
+      LOGGER.log(FINE, "Aborted upload {0} for {1} initiated {2}: {3} parts, {4} bytes",
+              new Object[]{upload.uploadId(), upload.key(), upload.initiated(), parts, bytes});
+    } catch (NoSuchUploadException e) {
+      LOGGER.log(FINE, "Upload {0} for {1} no longer exists", new Object[]{upload.uploadId(), upload.key()});
+    } catch (Exception e) {
+      failed.incrementAndGet();
+      LOGGER.log(WARNING, "Failed to abort upload {0} for {1}: {2}",
+              new Object[]{upload.uploadId(), upload.key(), e.getMessage()});
+    }
+  }
+
+  public long abortedCount() {
+    return aborted.get();
+  }
+
+  public long failedCount() {
+    return failed.get();
+  }
+
+  public long partsReclaimedCount() {
+    return partsReclaimed.get();
+  }
+
+  public long bytesReclaimedCount() {
+    return bytesReclaimed.get();
+  }
+}
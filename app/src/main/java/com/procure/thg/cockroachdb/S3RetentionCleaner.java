@@ -0,0 +1,154 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class S3RetentionCleaner {
+
+  private static final Logger LOGGER = Logger.getLogger(S3RetentionCleaner.class.getName());
+
+  private final S3Client s3Client;
+  private final String bucket;
+  private final long thresholdSeconds;
+  private final String folder;
+  private final int keepLast;
+  private final int prefixDepth;
+  private BucketLister lister;
+
+  // Only a summary is held per group, never its keys
+  private static final class GroupSummary {
+    private final String prefix;
+    private Instant newest = Instant.MIN;
+    private long objectCount;
+
+    private GroupSummary(final String prefix) {
+      this.prefix = prefix;
+    }
+  }
+
+  public S3RetentionCleaner(final S3Client s3Client, final String bucket, final long thresholdSeconds,
+                            final String folder, final int keepLast, final int prefixDepth) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+    this.thresholdSeconds = thresholdSeconds;
+    this.folder = folder != null && !folder.isEmpty() ?
+            folder.endsWith("/") ? folder : folder + "/"
+            : "";
+    this.keepLast = keepLast;
+    this.prefixDepth = Math.max(1, prefixDepth);
+    this.lister = new BucketLister(s3Client);
+  }
+
+  public S3RetentionCleaner withLister(final BucketLister lister) {
+    this.lister = lister;
+    return this;
+  }
+
+  public void cleanExcessGroups() {
+    LOGGER.log(INFO, "Starting retention cleaner for bucket: {0}", bucket);
+    LOGGER.log(INFO, "Keeping the newest {0} groups at depth {1} under each parent prefix of {2}",
+            new Object[]{keepLast, prefixDepth, folder});
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+
+    // Parent prefix -> group prefix -> summary
+    final Map<String, Map<String, GroupSummary>> parents = new HashMap<>();
+    try {
+      lister.forEachPage(request(folder), page -> {
+        for (S3Object s3Object : page.contents()) {
+          final String group = groupPrefix(s3Object.key());
+          if (group == null) {
+            LOGGER.log(FINE, "Skipping key {0}: shallower than the retention depth", s3Object.key());
+            continue;
+          }
+          synchronized (parents) {
+            GroupSummary summary = parents.computeIfAbsent(parentPrefix(group), parent -> new HashMap<>())
+                    .computeIfAbsent(group, GroupSummary::new);
+            summary.objectCount++;
+            if (s3Object.lastModified().isAfter(summary.newest)) {
+              summary.newest = s3Object.lastModified();
+            }
+          }
+        }
+      });
+    } catch (Exception e) {
+      // Ranking on a partial listing could delete groups that should be kept
+      LOGGER.log(SEVERE, String.format("Failed to list objects in %s/%s, nothing deleted: %s",
+              bucket, folder, e.getMessage()), e);
+      return;
+    }
+
+    final List<GroupSummary> expiredGroups = new ArrayList<>();
+    for (Map<String, GroupSummary> groups : parents.values()) {
+      final List<GroupSummary> ranked = new ArrayList<>(groups.values());
+      ranked.sort(Comparator.comparing((GroupSummary summary) -> summary.newest).reversed());
+      expiredGroups.addAll(ranked.subList(Math.min(keepLast, ranked.size()), ranked.size()));
+    }
+    LOGGER.log(INFO, "Found {0} groups under {1} parents, {2} outside the newest {3}",
+            new Object[]{parents.values().stream().mapToInt(Map::size).sum(), parents.size(),
+                    expiredGroups.size(), keepLast});
+
+    final BatchDeleter deleter = new BatchDeleter(s3Client, bucket);
+    for (GroupSummary group : expiredGroups) {
+      LOGGER.log(FINE, "Deleting group {0}: {1} objects, newest {2}",
+              new Object[]{group.prefix, group.objectCount, group.newest});
+      try {
+        lister.forEachPage(request(group.prefix), page -> {
+          final List<String> expiredKeys = new ArrayList<>();
+          for (S3Object s3Object : page.contents()) {
+            // Anything younger than the threshold is kept even in an expired group
+            if (s3Object.lastModified().isBefore(threshold)) {
+              expiredKeys.add(s3Object.key());
+            }
+          }
+          deleter.deleteKeys(expiredKeys);
+        });
+      } catch (Exception e) {
+        LOGGER.log(WARNING, "Failed to clean group {0}: {1}", new Object[]{group.prefix, e.getMessage()});
+      }
+    }
+    LOGGER.log(INFO, "Retention cleaning finished. Deleted {0} objects from {1} groups, {2} failed.",
+            new Object[]{deleter.deletedCount(), expiredGroups.size(), deleter.failedCount()});
+  }
+
+  private ListObjectsV2Request request(final String prefix) {
+    ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(bucket);
+    if (!prefix.isEmpty()) {
+      requestBuilder.prefix(prefix);
+    }
+    return requestBuilder.build();
+  }
+
+  // The first prefixDepth segments below the folder, or null for keys that are not that deep
+  private String groupPrefix(final String key) {
+    if (!key.startsWith(folder)) {
+      return null;
+    }
+    int end = folder.length() - 1;
+    for (int segment = 0; segment < prefixDepth; segment++) {
+      end = key.indexOf('/', end + 1);
+      if (end < 0) {
+        return null;
+      }
+    }
+    return key.substring(0, end + 1);
+  }
+
+  private static String parentPrefix(final String group) {
+    final int end = group.lastIndexOf('/', group.length() - 2);
+    return end < 0 ? "" : group.substring(0, end + 1);
+  }
+}
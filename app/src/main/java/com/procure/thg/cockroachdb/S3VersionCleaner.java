@@ -0,0 +1,173 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+public class S3VersionCleaner {
+
+  private static final Logger LOGGER = Logger.getLogger(S3VersionCleaner.class.getName());
+
+  private final S3Client s3Client;
+  private final String bucket;
+  private final long thresholdSeconds;
+  private final String folder;
+
+  // One listing entry, either an object version or a delete marker
+  private record Entry(String key, String versionId, Instant lastModified, boolean latest, boolean deleteMarker) {
+  }
+
+  // Versions of a key are listed newest first and may span pages, so only the current key is tracked
+  private static final class KeyGroup {
+    private final String key;
+    private Instant successorModified;
+    private Entry latestDeleteMarker;
+    private boolean retained;
+    private boolean failed;
+
+    private KeyGroup(final String key) {
+      this.key = key;
+    }
+  }
+
+  public S3VersionCleaner(final S3Client s3Client, final String bucket, final long thresholdSeconds,
+                          final String folder) {
+    this.s3Client = s3Client;
+    this.bucket = bucket;
+    this.thresholdSeconds = thresholdSeconds;
+    this.folder = folder != null && !folder.isEmpty() ?
+            folder.endsWith("/") ? folder : folder + "/"
+            : null;
+  }
+
+  public void cleanOldVersions() {
+    LOGGER.log(INFO, "Starting version cleaner for bucket: {0}", bucket);
+    final Instant threshold = Instant.now().minus(thresholdSeconds, ChronoUnit.SECONDS);
+    LOGGER.log(INFO, "Removing versions noncurrent since before {0} and orphaned delete markers", threshold);
+
+    final BatchDeleter versionDeleter = new BatchDeleter(s3Client, bucket);
+    final BatchDeleter markerDeleter = new BatchDeleter(s3Client, bucket);
+    ListObjectVersionsRequest.Builder requestBuilder = ListObjectVersionsRequest.builder().bucket(bucket);
+    if (folder != null) {
+      requestBuilder.prefix(folder);
+    }
+
+    KeyGroup group = null;
+    int pageCount = 0;
+    boolean complete = true;
+    ListObjectVersionsResponse response;
+    do {
+      pageCount++;
+      try {
+        response = s3Client.listObjectVersions(requestBuilder.build());
+      } catch (Exception e) {
+        LOGGER.log(WARNING, "Error listing object versions in page {0}: {1}",
+                new Object[]{pageCount, e.getMessage()});
+        complete = false;
+        break;
+      }
+
+      final List<ObjectIdentifier> versions = new ArrayList<>();
+      final List<Entry> markers = new ArrayList<>();
+      for (Entry entry : entries(response)) {
+        if (group == null || !group.key.equals(entry.key())) {
+          closeGroup(group, threshold, markers);
+          group = new KeyGroup(entry.key());
+        }
+        if (folder != null && entry.key().equals(folder)) {
+          group.retained = true;
+        } else if (entry.latest()) {
+          if (entry.deleteMarker()) {
+            group.latestDeleteMarker = entry;
+          } else {
+            group.retained = true;
+          }
+        } else if (group.successorModified != null && group.successorModified.isBefore(threshold)) {
+          // A version becomes noncurrent when its successor is written
+          versions.add(ObjectIdentifier.builder().key(entry.key()).versionId(entry.versionId()).build());
+        } else {
+          group.retained = true;
+        }
+        group.successorModified = entry.lastModified();
+      }
+
+      // Markers go last so a failed version delete never has its marker removed and resurfaces
+      final Set<String> failedKeys = versionDeleter.delete(versions);
+      if (group != null && failedKeys.contains(group.key)) {
+        group.failed = true;
+      }
+      deleteMarkers(markerDeleter, markers, failedKeys);
+
+      requestBuilder = requestBuilder
+              .keyMarker(response.nextKeyMarker())
+              .versionIdMarker(response.nextVersionIdMarker());
+    } while (Boolean.TRUE.equals(response.isTruncated()));
+
+    if (complete) {
+      final List<Entry> markers = new ArrayList<>();
+      closeGroup(group, threshold, markers);
+      deleteMarkers(markerDeleter, markers, Set.of());
+    } else if (group != null) {
+      // Older versions of this key may sit on pages that were never listed
+      LOGGER.log(FINE, "Keeping delete marker for {0}: listing stopped before all its versions were seen", group.key);
+    }
+
+    LOGGER.log(INFO, "Version cleaning finished. Processed {0} pages, deleted {1} noncurrent versions and {2} delete markers, {3} failed.",
+            new Object[]{pageCount, versionDeleter.deletedCount(), markerDeleter.deletedCount(),
+                    versionDeleter.failedCount() + markerDeleter.failedCount()});
+  }
+
+  private static List<Entry> entries(final ListObjectVersionsResponse response) {
+    final List<Entry> entries = new ArrayList<>();
+    for (ObjectVersion version : response.versions()) {
+      entries.add(new Entry(version.key(), version.versionId(), version.lastModified(),
+              Boolean.TRUE.equals(version.isLatest()), false));
+    }
+    for (DeleteMarkerEntry marker : response.deleteMarkers()) {
+      entries.add(new Entry(marker.key(), marker.versionId(), marker.lastModified(),
+              Boolean.TRUE.equals(marker.isLatest()), true));
+    }
+    // Versions and markers come back in separate lists; merge them into key order, newest first
+    entries.sort(Comparator.comparing(Entry::key)
+            .thenComparing(Entry::latest, Comparator.reverseOrder())
+            .thenComparing(Entry::lastModified, Comparator.reverseOrder()));
+    return entries;
+  }
+
+  private static void closeGroup(final KeyGroup group, final Instant threshold, final List<Entry> markers) {
+    if (group == null || group.latestDeleteMarker == null || group.retained || group.failed) {
+      return;
+    }
+    if (group.latestDeleteMarker.lastModified().isBefore(threshold)) {
+      // Every older version is gone or being deleted, so the marker no longer hides anything
+      markers.add(group.latestDeleteMarker);
+    }
+  }
+
+  private static void deleteMarkers(final BatchDeleter markerDeleter, final List<Entry> markers,
+                                    final Set<String> failedKeys) {
+    final List<ObjectIdentifier> identifiers = new ArrayList<>();
+    for (Entry marker : markers) {
+      if (failedKeys.contains(marker.key())) {
+        LOGGER.log(FINE, "Keeping delete marker for {0}: older versions could not be deleted", marker.key());
+        continue;
+      }
+      identifiers.add(ObjectIdentifier.builder().key(marker.key()).versionId(marker.versionId()).build());
+    }
+    markerDeleter.delete(identifiers);
+  }
+}
@@ -0,0 +1,265 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+// Local record of what the target holds, so a copy can be skipped without a HEAD. It is kept as a
+// key-sorted snapshot file plus a journal of the changes made since, and loaded into memory on open.
+public class TargetIndex implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(TargetIndex.class.getName());
+
+  private static final String HEADER = "#";
+  private static final String REMOVED = "-";
+
+  // The source ETag and size copied to a target key, or the target's own for unknown keys found by reconciling
+  public record Entry(String eTag, long size, Instant copiedAt) {
+  }
+
+  private final Path snapshot;
+  private final Path journal;
+  private final String scope;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private Instant reconciledAt;
+  private BufferedWriter journalWriter;
+
+  private TargetIndex(final Path snapshot, final String scope) {
+    this.snapshot = snapshot;
+    this.journal = snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+    this.scope = scope;
+  }
+
+  // The scope names the target bucket and folder; an index written for another target is discarded
+  public static TargetIndex open(final Path file, final String scope) throws IOException {
+    final TargetIndex index = new TargetIndex(file, scope);
+    index.load();
+    index.journalWriter = Files.newBufferedWriter(index.journal, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    return index;
+  }
+
+  private void load() throws IOException {
+    if (!Files.exists(snapshot)) {
+      LOGGER.log(INFO, "No target index at {0}, starting empty", snapshot);
+      Files.deleteIfExists(journal);
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+      final String line = reader.readLine();
+      if (line == null || !line.startsWith(HEADER + " ")) {
+        LOGGER.log(WARNING, "Target index {0} has no header, starting empty", snapshot);
+        discard();
+        return;
+      }
+      final String[] fields = line.substring(2).split("\t");
+      if (fields.length != 2 || !scope.equals(decode(fields[0]))) {
+        LOGGER.log(INFO, "Ignoring target index written for {0}", fields.length > 0 ? decode(fields[0]) : "");
+        discard();
+        return;
+      }
+      reconciledAt = Instant.parse(fields[1]);
+      String record;
+      while ((record = reader.readLine()) != null) {
+        apply(record);
+      }
+    }
+    if (Files.exists(journal)) {
+      try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+        String record;
+        while ((record = reader.readLine()) != null) {
+          apply(record);
+        }
+      }
+    }
+    LOGGER.log(INFO, "Loaded target index with {0} keys, last reconciled {1}",
+            new Object[]{entries.size(), reconciledAt});
+  }
+
+  private void discard() throws IOException {
+    entries.clear();
+    reconciledAt = null;
+    Files.deleteIfExists(journal);
+  }
+
+  // A journal cut short by a crash ends in a partial line, which is ignored
+  private void apply(final String record) {
+    final String[] fields = record.split("\t");
+    if (fields.length == 2 && fields[0].equals(REMOVED)) {
+      entries.remove(decode(fields[1]));
+    } else if (fields.length == 4) {
+      try {
+        entries.put(decode(fields[0]), new Entry(fields[1].isEmpty() ? null : fields[1],
+                Long.parseLong(fields[2]), Instant.ofEpochMilli(Long.parseLong(fields[3]))));
+      } catch (RuntimeException e) {
+        LOGGER.log(WARNING, "Skipping unreadable target index record: {0}", record);
+      }
+    }
+  }
+
+  public Entry get(final String targetKey) {
+    return entries.get(targetKey);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public synchronized Instant reconciledAt() {
+    return reconciledAt;
+  }
+
+  public boolean needsReconcile(final Duration interval) {
+    final Instant reconciled = reconciledAt();
+    return reconciled == null || reconciled.plus(interval).isBefore(Instant.now());
+  }
+
+  // Journalled before returning, so a copy is never forgotten once it has been recorded
+  public synchronized void put(final String targetKey, final String eTag, final long size) {
+    final Entry entry = new Entry(eTag, size, Instant.now());
+    entries.put(targetKey, entry);
+    appendJournal(record(targetKey, entry));
+  }
+
+  public synchronized void remove(final String targetKey) {
+    entries.remove(targetKey);
+    appendJournal(REMOVED + "\t" + encode(targetKey));
+  }
+
+  private void appendJournal(final String record) {
+    try {
+      journalWriter.write(record);
+      journalWriter.newLine();
+      journalWriter.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Replaces the index with a full listing of the target. Entries whose size still matches keep their
+  // recorded source ETag, since a multipart copy's ETag differs from its source's; unknown multipart
+  // copies are looked up for the source ETag the copier stored with them
+  public void reconcile(final S3Client targetClient, final String bucket, final String prefix) {
+    LOGGER.log(INFO, "Reconciling target index with a listing of {0}/{1}", new Object[]{bucket, prefix});
+    final Instant started = Instant.now();
+    final Map<String, Entry> listed = new ConcurrentHashMap<>();
+    ListObjectsV2Request.Builder requestBuilder = ListObjectsV2Request.builder().bucket(bucket);
+    if (prefix != null && !prefix.isEmpty()) {
+      requestBuilder.prefix(prefix);
+    }
+    new BucketLister(targetClient).forEachPage(requestBuilder.build(), page -> {
+      for (S3Object s3Object : page.contents()) {
+        final Entry known = entries.get(s3Object.key());
+        final long size = s3Object.size() != null ? s3Object.size() : -1;
+        listed.put(s3Object.key(), known != null && known.size() == size
+                ? known
+                : new Entry(copiedETag(targetClient, bucket, s3Object), size, s3Object.lastModified()));
+      }
+    });
+    synchronized (this) {
+      final int before = entries.size();
+      // Keys copied while the listing ran may be missing from it, so they are kept
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        if (!entry.getValue().copiedAt().isBefore(started)) {
+          listed.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+      }
+      entries.clear();
+      entries.putAll(listed);
+      reconciledAt = started;
+      LOGGER.log(INFO, "Target index reconciled: {0} keys before, {1} after", new Object[]{before, entries.size()});
+      compact();
+    }
+  }
+
+  // Multipart ETags end in -<parts>; falls back to the listed ETag when no source ETag was stored
+  private static String copiedETag(final S3Client targetClient, final String bucket, final S3Object s3Object) {
+    final String eTag = s3Object.eTag();
+    if (eTag == null || !eTag.contains("-")) {
+      return eTag;
+    }
+    try {
+      final String sourceETag = targetClient.headObject(HeadObjectRequest.builder()
+              .bucket(bucket)
+              .key(s3Object.key())
+              .build()).metadata().get(S3Copier.SOURCE_ETAG_METADATA);
+      return sourceETag != null ? sourceETag : eTag;
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to read the source ETag of {0}: {1}", new Object[]{s3Object.key(), e.getMessage()});
+      return eTag;
+    }
+  }
+
+  // Rewrites the snapshot in key order and empties the journal
+  public synchronized void compact() {
+    try {
+      final List<String> keys = new ArrayList<>(entries.keySet());
+      keys.sort(ListingDiff::compareKeys);
+      final Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        writer.write(HEADER + " " + encode(scope) + "\t" + (reconciledAt != null ? reconciledAt : Instant.EPOCH));
+        writer.newLine();
+        for (String key : keys) {
+          final Entry entry = entries.get(key);
+          if (entry != null) {
+            writer.write(record(key, entry));
+            writer.newLine();
+          }
+        }
+      }
+      // Write then rename so an eviction mid-write never leaves a truncated index
+      Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      journalWriter.close();
+      journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    compact();
+    try {
+      journalWriter.close();
+    } catch (IOException e) {
+      LOGGER.log(WARNING, "Failed to close target index journal: {0}", e.getMessage());
+    }
+  }
+
+  private static String record(final String key, final Entry entry) {
+    return encode(key) + "\t" + (entry.eTag() != null ? entry.eTag() : "") + "\t" + entry.size()
+            + "\t" + entry.copiedAt().toEpochMilli();
+  }
+
+  // Keys may contain tabs and newlines
+  private static String encode(final String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(final String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+}
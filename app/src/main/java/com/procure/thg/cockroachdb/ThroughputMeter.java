@@ -0,0 +1,46 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.INFO;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Counts the objects and bytes copied over one combination of client backends, so backends can be
+// compared on the throughput they actually reach
+public class ThroughputMeter {
+
+  private static final Logger LOGGER = Logger.getLogger(ThroughputMeter.class.getName());
+
+  private final String label;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong objects = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+
+  public ThroughputMeter(final String label) {
+    this.label = label;
+  }
+
+  public void record(final long objectBytes) {
+    objects.incrementAndGet();
+    bytes.addAndGet(Math.max(0, objectBytes));
+  }
+
+  public long objectCount() {
+    return objects.get();
+  }
+
+  public long byteCount() {
+    return bytes.get();
+  }
+
+  public double megabytesPerSecond() {
+    final double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return seconds > 0 ? bytes.get() / (1024.0 * 1024.0) / seconds : 0;
+  }
+
+  public void report() {
+    final double seconds = (System.nanoTime() - startNanos) / 1e9;
+    LOGGER.log(INFO, String.format("Throughput [%s]: %d objects, %.1f MB in %.1f s, %.2f MB/s",
+            label, objects.get(), bytes.get() / (1024.0 * 1024.0), seconds, megabytesPerSecond()));
+  }
+}
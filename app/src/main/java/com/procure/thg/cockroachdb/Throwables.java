@@ -0,0 +1,14 @@
+package com.procure.thg.cockroachdb;
+
+import java.util.concurrent.CompletionException;
+
+final class Throwables {
+
+  private Throwables() {
+  }
+
+  // Futures wrap the failure of a dependent stage, which hides the S3 exception callers look at
+  static Throwable cause(final Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+}
@@ -0,0 +1,89 @@
+package com.procure.thg.cockroachdb;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+// The highest backup directory seen by the last clean run. For date-ordered layouts the next run lists
+// from just below it with StartAfter instead of from the start of the prefix.
+public class Watermark {
+
+  private static final Logger LOGGER = Logger.getLogger(Watermark.class.getName());
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String KEY = "key";
+
+  private final Checkpoint.Store store;
+  private final String fingerprint;
+  private String savedKey;
+  private String highestKey;
+
+  public Watermark(final Checkpoint.Store store, final String fingerprint) {
+    this.store = store;
+    this.fingerprint = fingerprint;
+    load();
+  }
+
+  private void load() {
+    try {
+      final byte[] content = store.read();
+      if (content == null) {
+        LOGGER.log(INFO, "No watermark found, listing from the start of the prefix");
+        return;
+      }
+      final Properties saved = new Properties();
+      saved.load(new ByteArrayInputStream(content));
+      if (!fingerprint.equals(saved.getProperty(FINGERPRINT))) {
+        LOGGER.log(INFO, "Ignoring watermark written with different parameters: {0}", saved.getProperty(FINGERPRINT));
+        return;
+      }
+      savedKey = saved.getProperty(KEY);
+      highestKey = savedKey;
+      LOGGER.log(INFO, "Resuming listing after watermark {0}", savedKey);
+    } catch (Exception e) {
+      LOGGER.log(WARNING, "Failed to read watermark, listing from the start of the prefix: {0}", e.getMessage());
+    }
+  }
+
+  // Returns null when the whole prefix has to be listed. Every key in the saved directory sorts after
+  // it, so that directory is listed again and files written into it after the last run are found
+  public String startAfter() {
+    return savedKey;
+  }
+
+  // Pages of a sharded listing arrive out of order, so only a higher key moves the mark
+  public synchronized void observe(final String key) {
+    if (highestKey == null || ListingDiff.compareKeys(key, highestKey) > 0) {
+      highestKey = key;
+    }
+  }
+
+  public synchronized String highestKey() {
+    return highestKey;
+  }
+
+  // Only called after a run in which every object succeeded, so a failed key is listed again next time
+  public void save() {
+    final String key = highestKey();
+    if (key == null || key.equals(savedKey)) {
+      return;
+    }
+    final Properties snapshot = new Properties();
+    snapshot.setProperty(FINGERPRINT, fingerprint);
+    snapshot.setProperty(KEY, key);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      snapshot.store(out, null);
+      store.write(out.toByteArray());
+      savedKey = key;
+      LOGGER.log(INFO, "Watermark advanced to {0}", key);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(WARNING, "Failed to save watermark: {0}", e.getMessage());
+    }
+  }
+}
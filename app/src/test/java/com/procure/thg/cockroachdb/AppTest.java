@@ -1,7 +1,8 @@
 package com.procure.thg.cockroachdb;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.any;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -13,10 +14,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
@@ -48,7 +51,7 @@ class AppTest {
 
   @ParameterizedTest
   @MethodSource("arguments")
-  void testDeleteOldObjects(final int numOfInvocations, final int thresholdSeconds, final String folder) {
+  void testDeleteOldObjects(final int numOfDeletions, final int thresholdSeconds, final String folder) {
     final var s3Objects = new ArrayList<S3Object>();
     final var now = Instant.now();
     s3Objects.add(S3Object.builder().key("old-object").lastModified(now.minusSeconds(13 * 3600)).build());
@@ -60,10 +63,14 @@ class AppTest {
         .build();
 
     when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(listObjectsV2Response);
+    when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
 
     final S3Cleaner app = new S3Cleaner(s3Client, thresholdSeconds, folder);
     app.cleanOldObjects();
 
-    verify(s3Client, times(numOfInvocations)).deleteObject(any(DeleteObjectRequest.class));
+    final var captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+    verify(s3Client, atMost(1)).deleteObjects(captor.capture());
+    final int deleted = captor.getAllValues().stream().mapToInt(request -> request.delete().objects().size()).sum();
+    assertEquals(numOfDeletions, deleted);
   }
 }
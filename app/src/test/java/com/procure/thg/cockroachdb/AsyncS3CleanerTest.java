@@ -0,0 +1,158 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class AsyncS3CleanerTest {
+
+    @Mock
+    private S3AsyncClient s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final String BUCKET_NAME = "thg-procurement-data";
+    private static final String FOLDER = "shared/non-compliance/";
+    private static final long THRESHOLD_SECONDS = 90000;
+    private static final Instant NOW = Instant.now();
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build()));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static S3Object object(final String key, final long ageSeconds) {
+        return S3Object.builder().key(key).lastModified(NOW.minusSeconds(ageSeconds)).build();
+    }
+
+    private void stubHead(final String key, final Map<String, String> metadata) {
+        when(s3Client.headObject((HeadObjectRequest) argThat(req -> req instanceof HeadObjectRequest && key.equals(((HeadObjectRequest) req).key()))))
+                .thenReturn(CompletableFuture.completedFuture(HeadObjectResponse.builder().metadata(metadata).build()));
+    }
+
+    private List<String> deletedKeys() {
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, atLeastOnce()).deleteObjects(captor.capture());
+        return captor.getAllValues().stream()
+                .flatMap(request -> request.delete().objects().stream())
+                .map(object -> object.key())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testDeletesByMetadataAcrossPages() {
+        final String oldKey = FOLDER + "old.csv";
+        final String copiedKey = FOLDER + "copied.csv";
+        final String recentKey = FOLDER + "recent.csv";
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).continuationToken() == null)))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(object(FOLDER, 200000), object(oldKey, 200000), object(copiedKey, 10))
+                        .isTruncated(true)
+                        .nextContinuationToken("page-2")
+                        .build()));
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "page-2".equals(((ListObjectsV2Request) req).continuationToken()))))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(object(recentKey, 10))
+                        .isTruncated(false)
+                        .build()));
+        stubHead(oldKey, Map.of());
+        // Copied in recently, but the last-modified metadata says it is old
+        stubHead(copiedKey, Map.of("last-modified", NOW.minusSeconds(200000).toString()));
+        stubHead(recentKey, Map.of("last-modified", NOW.minusSeconds(10).toString()));
+
+        AsyncS3Cleaner cleaner = new AsyncS3Cleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, FOLDER);
+        cleaner.cleanOldObjects();
+
+        assertEquals(List.of(copiedKey, oldKey), deletedKeys().stream().sorted().collect(Collectors.toList()));
+        assertEquals(2, cleaner.deletedCount());
+        assertEquals(0, cleaner.failedCount());
+        verify(s3Client, never()).headObject((HeadObjectRequest) argThat(req -> req instanceof HeadObjectRequest && FOLDER.equals(((HeadObjectRequest) req).key())));
+    }
+
+    @Test
+    void testFailedHeadFallsBackToListingTimestamp() {
+        final String oldKey = FOLDER + "old.csv";
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(object(oldKey, 200000))
+                        .isTruncated(false)
+                        .build()));
+        when(s3Client.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().message("Slow Down").statusCode(503).build()));
+
+        new AsyncS3Cleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, FOLDER).cleanOldObjects();
+
+        assertEquals(List.of(oldKey), deletedKeys());
+    }
+
+    @Test
+    void testHeadWindowSkipsHeadOutsideWindow() {
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(object(FOLDER + "old.csv", 200000), object(FOLDER + "recent.csv", 10))
+                        .isTruncated(false)
+                        .build()));
+
+        new AsyncS3Cleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, FOLDER)
+                .withHeadWindowSeconds(3600)
+                .cleanOldObjects();
+
+        verify(s3Client, never()).headObject(any(HeadObjectRequest.class));
+        assertEquals(List.of(FOLDER + "old.csv"), deletedKeys());
+    }
+
+    @Test
+    void testDeletesInBatchesOfAThousand() {
+        final List<S3Object> objects = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            objects.add(object(String.format("%sold-%04d.csv", FOLDER, i), 200000));
+        }
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(objects)
+                        .isTruncated(false)
+                        .build()));
+
+        AsyncS3Cleaner cleaner = new AsyncS3Cleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, FOLDER)
+                .withHeadWindowSeconds(0)
+                .withMaxInFlight(64);
+        cleaner.cleanOldObjects();
+
+        verify(s3Client, times(2)).deleteObjects(any(DeleteObjectsRequest.class));
+        assertEquals(1500, cleaner.deletedCount());
+    }
+}
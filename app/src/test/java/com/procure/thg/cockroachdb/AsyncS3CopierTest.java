@@ -0,0 +1,229 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class AsyncS3CopierTest {
+
+    @Mock
+    private S3AsyncClient sourceClient;
+
+    @Mock
+    private S3AsyncClient targetClient;
+
+    @Mock
+    private S3Copier largeObjectCopier;
+
+    private AutoCloseable closeable;
+
+    private static final String SOURCE_BUCKET = "source-bucket";
+    private static final String SOURCE_FOLDER = "src/";
+    private static final String TARGET_BUCKET = "target-bucket";
+    private static final String TARGET_FOLDER = "dst/";
+    private static final long THRESHOLD_SECONDS = 3600;
+    private static final Instant NOW = Instant.now();
+    private static final byte[] CONTENT = "hello world".getBytes(StandardCharsets.UTF_8);
+    // MD5 of CONTENT
+    private static final String CONTENT_ETAG = "\"5eb63bbbe01eeed093cb22bb8f5acdc3\"";
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(targetClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private void stubListing(final S3Object... objects) {
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                        .contents(objects)
+                        .isTruncated(false)
+                        .build()));
+    }
+
+    private void stubTargetHead(final String key, final HeadObjectResponse response) {
+        when(targetClient.headObject((HeadObjectRequest) argThat(req -> req instanceof HeadObjectRequest && key.equals(((HeadObjectRequest) req).key()))))
+                .thenReturn(response != null
+                        ? CompletableFuture.completedFuture(response)
+                        : CompletableFuture.failedFuture(NoSuchKeyException.builder().message("Not Found").build()));
+    }
+
+    private void stubGet(final String key, final String eTag) {
+        when(sourceClient.getObject((GetObjectRequest) argThat(req -> req instanceof GetObjectRequest && key.equals(((GetObjectRequest) req).key())),
+                any(AsyncResponseTransformer.class)))
+                .thenReturn(CompletableFuture.completedFuture(ResponseBytes.fromByteArray(GetObjectResponse.builder()
+                        .eTag(eTag)
+                        .contentLength((long) CONTENT.length)
+                        .contentType("text/plain")
+                        .lastModified(NOW)
+                        .build(), CONTENT)));
+    }
+
+    private static S3Object object(final String key, final long ageSeconds, final long size) {
+        return S3Object.builder().key(key).eTag(CONTENT_ETAG).size(size).lastModified(NOW.minusSeconds(ageSeconds)).build();
+    }
+
+    @Test
+    void testCopiesMissingAndSkipsExistingObjects() {
+        stubListing(object(SOURCE_FOLDER + "new.txt", 10, CONTENT.length),
+                object(SOURCE_FOLDER + "existing.txt", 10, CONTENT.length),
+                object(SOURCE_FOLDER + "old.txt", 7200, CONTENT.length));
+        stubTargetHead(TARGET_FOLDER + "new.txt", null);
+        stubTargetHead(TARGET_FOLDER + "existing.txt", HeadObjectResponse.builder().eTag(CONTENT_ETAG).build());
+        stubGet(SOURCE_FOLDER + "new.txt", CONTENT_ETAG);
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, false)
+                .withChecksumVerification(true)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(targetClient, times(1)).putObject(captor.capture(), any(AsyncRequestBody.class));
+        PutObjectRequest put = captor.getValue();
+        assertEquals(TARGET_BUCKET, put.bucket());
+        assertEquals(TARGET_FOLDER + "new.txt", put.key());
+        assertEquals("text/plain", put.contentType());
+        assertEquals(NOW.toString(), put.metadata().get("x-amz-meta-last-modified"));
+        assertEquals("XrY7u+Ae7tCTyyK7j1rNww==", put.contentMD5());
+        verify(sourceClient, never()).getObject((GetObjectRequest) argThat(req -> req instanceof GetObjectRequest
+                && !(SOURCE_FOLDER + "new.txt").equals(((GetObjectRequest) req).key())), any(AsyncResponseTransformer.class));
+    }
+
+    @Test
+    void testCopiesChangedObjectWhenCopyModified() {
+        stubListing(object(SOURCE_FOLDER + "changed.txt", 10, CONTENT.length));
+        stubTargetHead(TARGET_FOLDER + "changed.txt", HeadObjectResponse.builder().eTag("\"other\"").contentLength(3L).build());
+        stubGet(SOURCE_FOLDER + "changed.txt", CONTENT_ETAG);
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, true)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        verify(targetClient, times(1)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    void testBufferBudgetLimitsObjectsHeldAtOnce() {
+        final long size = 600 * 1024;
+        stubListing(object(SOURCE_FOLDER + "a.bin", 10, size), object(SOURCE_FOLDER + "b.bin", 10, size));
+        final CompletableFuture<HeadObjectResponse> firstHead = new CompletableFuture<>();
+        final AtomicInteger heads = new AtomicInteger();
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenAnswer(invocation -> heads.incrementAndGet() == 1
+                        ? firstHead
+                        : CompletableFuture.failedFuture(NoSuchKeyException.builder().message("Not Found").build()));
+        stubGet(SOURCE_FOLDER + "a.bin", CONTENT_ETAG);
+        stubGet(SOURCE_FOLDER + "b.bin", CONTENT_ETAG);
+        // The second object only fits in the 1MB budget once the first has released its share
+        final CompletableFuture<Integer> headsWhileFirstHeld = CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final int sent = heads.get();
+            firstHead.completeExceptionally(NoSuchKeyException.builder().message("Not Found").build());
+            return sent;
+        });
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, false)
+                .withBufferBudget(1024 * 1024)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        assertEquals(1, headsWhileFirstHeld.join());
+        verify(targetClient, times(2)).headObject(any(HeadObjectRequest.class));
+        verify(targetClient, times(2)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    void testChecksumMismatchRetriesThenGivesUp() {
+        stubListing(object(SOURCE_FOLDER + "damaged.txt", 10, CONTENT.length));
+        stubTargetHead(TARGET_FOLDER + "damaged.txt", null);
+        stubGet(SOURCE_FOLDER + "damaged.txt", "\"00000000000000000000000000000000\"");
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, false)
+                .withChecksumVerification(true)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        verify(sourceClient, times(3)).getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class));
+        verify(targetClient, never()).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    void testLargeObjectsGoToLargeObjectCopier() throws Exception {
+        stubListing(object(SOURCE_FOLDER + "large.bin", 10, S3Copier.MEMORY_BUFFER_THRESHOLD));
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, false)
+                .withLargeObjectCopier(largeObjectCopier, 2)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        verify(largeObjectCopier).copyObject(SOURCE_FOLDER + "large.bin");
+        verify(targetClient, never()).headObject(any(HeadObjectRequest.class));
+        verify(sourceClient, never()).getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class));
+    }
+
+    @Test
+    void testLargeObjectsGoThroughSpillFile(@TempDir Path spillDirectory) throws Exception {
+        final long size = S3Copier.MEMORY_BUFFER_THRESHOLD + 1;
+        stubListing(object(SOURCE_FOLDER + "large.bin", 10, size));
+        stubTargetHead(TARGET_FOLDER + "large.bin", null);
+        when(sourceClient.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+                .thenReturn(CompletableFuture.completedFuture(GetObjectResponse.builder()
+                        .contentLength(size)
+                        .contentType("application/octet-stream")
+                        .build()));
+        ThroughputMeter meter = new ThroughputMeter("source crt, target crt");
+
+        new AsyncS3Copier(sourceClient, SOURCE_BUCKET, SOURCE_FOLDER, targetClient, TARGET_BUCKET, TARGET_FOLDER, false)
+                .withLargeObjectCopier(largeObjectCopier, 2)
+                .withLargeObjectSpill(spillDirectory)
+                .withThroughputMeter(meter)
+                .copyRecentObjects(THRESHOLD_SECONDS);
+
+        verify(largeObjectCopier, never()).copyObject(any());
+        verify(targetClient).putObject((PutObjectRequest) argThat(req -> req instanceof PutObjectRequest
+                && (TARGET_FOLDER + "large.bin").equals(((PutObjectRequest) req).key())), any(AsyncRequestBody.class));
+        assertEquals(1, meter.objectCount());
+        assertEquals(size, meter.byteCount());
+        try (var files = Files.list(spillDirectory)) {
+            assertTrue(files.findAny().isEmpty());
+        }
+    }
+}
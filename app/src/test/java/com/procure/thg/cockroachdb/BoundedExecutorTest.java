@@ -0,0 +1,59 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedExecutorTest {
+
+    @Test
+    void testRunsInlineWithConcurrencyOfOne() {
+        final Thread caller = Thread.currentThread();
+        final List<Thread> threads = new ArrayList<>();
+        try (BoundedExecutor executor = new BoundedExecutor("test", 1)) {
+            BoundedExecutor.awaitAll(List.of(executor.submit(() -> threads.add(Thread.currentThread()))));
+        }
+        assertEquals(List.of(caller), threads);
+    }
+
+    @Test
+    void testLimitsTasksInFlight() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>();
+        try (BoundedExecutor executor = new BoundedExecutor("test", 3)) {
+            for (int i = 0; i < 30; i++) {
+                futures.add(executor.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                }));
+            }
+            BoundedExecutor.awaitAll(futures);
+        }
+        assertEquals(30, completed.get());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    void testAwaitAllToleratesFailedTasks() {
+        try (BoundedExecutor executor = new BoundedExecutor("test", 2)) {
+            final Future<?> failed = executor.submit(() -> {
+                throw new IllegalStateException("boom");
+            });
+            BoundedExecutor.awaitAll(List.of(failed));
+            assertTrue(failed.isDone());
+        }
+    }
+}
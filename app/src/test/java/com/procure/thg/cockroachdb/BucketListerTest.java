@@ -0,0 +1,184 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.EncodingType;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class BucketListerTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    public void openMocks() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    public void releaseMocks() throws Exception {
+        closeable.close();
+    }
+
+    private static ListObjectsV2Response page(final String key, final String nextToken) {
+        return ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key(key).build())
+                .isTruncated(nextToken != null)
+                .nextContinuationToken(nextToken)
+                .build();
+    }
+
+    @Test
+    void testPrefetchesNextPageWhileCurrentPageIsHandled() throws Exception {
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).continuationToken() == null)))
+                .thenReturn(page("a", "token"));
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "token".equals(((ListObjectsV2Request) req).continuationToken()))))
+                .thenAnswer(invocation -> {
+                    secondPageRequested.countDown();
+                    return page("b", null);
+                });
+
+        final List<String> keys = new ArrayList<>();
+        final List<Boolean> prefetched = new ArrayList<>();
+        new BucketLister(s3Client).forEachPage(ListObjectsV2Request.builder().bucket("bucket").build(), page -> {
+            if (keys.isEmpty()) {
+                try {
+                    prefetched.add(secondPageRequested.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            page.contents().forEach(object -> keys.add(object.key()));
+        });
+
+        assertEquals(List.of("a", "b"), keys);
+        assertEquals(List.of(true), prefetched);
+    }
+
+    @Test
+    void testKeepsRequestParametersForFollowingPages() {
+        final List<ListObjectsV2Request> requests = new ArrayList<>();
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request)))
+                .thenAnswer(invocation -> {
+                    ListObjectsV2Request request = invocation.getArgument(0);
+                    synchronized (requests) {
+                        requests.add(request);
+                    }
+                    return request.continuationToken() == null ? page("a", "token") : page("b", null);
+                });
+
+        new BucketLister(s3Client).forEachPage(ListObjectsV2Request.builder().bucket("bucket").prefix("folder/").build(), page -> { });
+
+        assertEquals(2, requests.size());
+        assertTrue(requests.stream().allMatch(request -> "folder/".equals(request.prefix()) && "bucket".equals(request.bucket())));
+    }
+
+    @Test
+    void testShardsListingByCommonPrefixes() {
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "/".equals(((ListObjectsV2Request) req).delimiter()))))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("backups/top.txt").build())
+                        .commonPrefixes(CommonPrefix.builder().prefix("backups/a/").build(),
+                                CommonPrefix.builder().prefix("backups/b/").build())
+                        .isTruncated(false)
+                        .build());
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).delimiter() == null && "backups/a/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(page("backups/a/1.sst", null));
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).delimiter() == null && "backups/b/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(page("backups/b/1.sst", null));
+
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        new BucketLister(s3Client, 1, 4).forEachPage(ListObjectsV2Request.builder().bucket("bucket").prefix("backups/").build(),
+                page -> page.contents().forEach(object -> keys.add(object.key())));
+
+        assertEquals(Set.of("backups/top.txt", "backups/a/1.sst", "backups/b/1.sst"), keys);
+    }
+
+    @Test
+    void testUsesCommonPrefixesAsDecodedBySdk() {
+        // The SDK decodes url-encoded common prefixes itself, so these arrive with a literal + and %
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "/".equals(((ListObjectsV2Request) req).delimiter()))))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .commonPrefixes(CommonPrefix.builder().prefix("backups/a+b/").build(),
+                                CommonPrefix.builder().prefix("backups/100%/").build())
+                        .isTruncated(false)
+                        .build());
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).delimiter() == null && "backups/a+b/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(page("backups/a+b/1.sst", null));
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).delimiter() == null && "backups/100%/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(page("backups/100%/1.sst", null));
+
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        new BucketLister(s3Client, 1, 4).forEachPage(ListObjectsV2Request.builder().bucket("bucket").prefix("backups/")
+                        .encodingType(EncodingType.URL).build(),
+                page -> page.contents().forEach(object -> keys.add(object.key())));
+
+        assertEquals(Set.of("backups/a+b/1.sst", "backups/100%/1.sst"), keys);
+    }
+
+    @Test
+    void testSkipsPrefixesRejectedByFilter() {
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "/".equals(((ListObjectsV2Request) req).delimiter()))))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .commonPrefixes(CommonPrefix.builder().prefix("backups/2024/").build(),
+                                CommonPrefix.builder().prefix("backups/2025/").build())
+                        .isTruncated(false)
+                        .build());
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).delimiter() == null && "backups/2025/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(page("backups/2025/1.sst", null));
+
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        new BucketLister(s3Client).withPrefixFilter(relativePrefix -> !relativePrefix.startsWith("2024"), 1)
+                .forEachPage(ListObjectsV2Request.builder().bucket("bucket").prefix("backups/").build(),
+                        page -> page.contents().forEach(object -> keys.add(object.key())));
+
+        assertEquals(Set.of("backups/2025/1.sst"), keys);
+        verify(s3Client, never()).listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                && "backups/2024/".equals(((ListObjectsV2Request) req).prefix())));
+    }
+
+    @Test
+    void testResumesFromCheckpointToken(@TempDir final Path tempDir) {
+        final Path file = tempDir.resolve("checkpoint.properties");
+        new Checkpoint(Checkpoint.localFile(file), "run", Duration.ZERO).pageCompleted("folder/", "token");
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "token".equals(((ListObjectsV2Request) req).continuationToken()))))
+                .thenReturn(page("folder/b", null));
+
+        final List<String> keys = new ArrayList<>();
+        new BucketLister(s3Client).forEachPage(ListObjectsV2Request.builder().bucket("bucket").prefix("folder/").build(),
+                new Checkpoint(Checkpoint.localFile(file), "run", Duration.ZERO),
+                page -> page.contents().forEach(object -> keys.add(object.key())));
+
+        assertEquals(List.of("folder/b"), keys);
+        verify(s3Client, never()).listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).continuationToken() == null));
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,80 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+
+class BufferPoolTest {
+
+    private static byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    @Test
+    void testRequestBodySpansChunksAndCanBeReadTwice() throws Exception {
+        final BufferPool pool = new BufferPool(64, 16);
+        final byte[] content = content(40);
+
+        try (BufferPool.Lease lease = pool.acquire(content.length)) {
+            lease.fill(new ByteArrayInputStream(content), content.length);
+            final RequestBody body = lease.requestBody();
+
+            assertEquals(40L, body.contentLength());
+            // A retry asks for a new stream, which must start from the beginning again
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try (InputStream in = body.contentStreamProvider().newStream()) {
+                    assertArrayEquals(content, in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFillFailsOnShortStream() {
+        final BufferPool pool = new BufferPool(64, 16);
+
+        try (BufferPool.Lease lease = pool.acquire(32)) {
+            assertThrows(EOFException.class, () -> lease.fill(new ByteArrayInputStream(content(20)), 32));
+        }
+    }
+
+    @Test
+    void testAcquireBlocksUntilBudgetIsReleased() throws Exception {
+        final BufferPool pool = new BufferPool(64, 16);
+        final BufferPool.Lease first = pool.acquire(48);
+        final CountDownLatch acquired = new CountDownLatch(1);
+
+        final Thread waiter = new Thread(() -> {
+            try (BufferPool.Lease second = pool.acquire(32)) {
+                acquired.countDown();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        first.close();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    void testRejectsObjectLargerThanBudget() {
+        final BufferPool pool = new BufferPool(64, 16);
+
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(65));
+    }
+}
@@ -0,0 +1,59 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRestoresProgressForMatchingParameters() {
+        final Path file = tempDir.resolve("checkpoint.properties");
+        final AtomicLong deleted = new AtomicLong(42);
+        final Checkpoint first = new Checkpoint(Checkpoint.localFile(file), "clean|bucket|folder/|3600", Duration.ZERO);
+        first.trackCounter("deleted", deleted::get);
+        first.pageCompleted("folder/a/", "token-2");
+        first.shardCompleted("folder/b/");
+
+        final Checkpoint resumed = new Checkpoint(Checkpoint.localFile(file), "clean|bucket|folder/|3600", Duration.ZERO);
+
+        assertEquals("token-2", resumed.resumeToken("folder/a/"));
+        assertTrue(resumed.isComplete("folder/b/"));
+        assertFalse(resumed.isComplete("folder/a/"));
+        assertEquals(42, resumed.restoredCounter("deleted"));
+    }
+
+    @Test
+    void testIgnoresCheckpointWithDifferentParameters() {
+        final Path file = tempDir.resolve("checkpoint.properties");
+        final Checkpoint first = new Checkpoint(Checkpoint.localFile(file), "clean|bucket|folder/|3600", Duration.ZERO);
+        first.pageCompleted("folder/", "token-2");
+
+        final Checkpoint other = new Checkpoint(Checkpoint.localFile(file), "clean|bucket|folder/|7200", Duration.ZERO);
+
+        assertNull(other.resumeToken("folder/"));
+    }
+
+    @Test
+    void testFinishRemovesCheckpoint() {
+        final Path file = tempDir.resolve("checkpoint.properties");
+        final Checkpoint checkpoint = new Checkpoint(Checkpoint.localFile(file), "copy", Duration.ZERO);
+        checkpoint.pageCompleted("", "token");
+        assertTrue(Files.exists(file));
+
+        checkpoint.finish();
+
+        assertFalse(Files.exists(file));
+    }
+}
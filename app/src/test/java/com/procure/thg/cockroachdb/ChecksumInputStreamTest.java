@@ -0,0 +1,43 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import org.junit.jupiter.api.Test;
+
+class ChecksumInputStreamTest {
+
+    @Test
+    void testComputesChecksumsOfBytesRead() throws Exception {
+        final ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream("content".getBytes()));
+
+        // Mix single-byte and bulk reads
+        final int first = in.read();
+        final byte[] rest = in.readAllBytes();
+
+        assertEquals('c', first);
+        assertArrayEquals("ontent".getBytes(), rest);
+        assertEquals("9a0364b9e99bb480dd25e1f0284c8555", in.md5Hex());
+        assertEquals("mgNkuembtIDdJeHwKEyFVQ==", in.md5Base64());
+        assertEquals("61af7533", in.crc32cHex());
+    }
+
+    @Test
+    void testCrc32cCheckValue() throws Exception {
+        final ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream("123456789".getBytes()));
+        in.readAllBytes();
+
+        assertEquals("e3069283", in.crc32cHex());
+    }
+
+    @Test
+    void testRecognisesMd5ETags() {
+        assertTrue(ChecksumInputStream.isMd5ETag("\"9a0364b9e99bb480dd25e1f0284c8555\""));
+        assertFalse(ChecksumInputStream.isMd5ETag("\"9a0364b9e99bb480dd25e1f0284c8555-3\""));
+        assertFalse(ChecksumInputStream.isMd5ETag(null));
+        assertEquals("mgNkuembtIDdJeHwKEyFVQ==", ChecksumInputStream.md5Base64("content".getBytes()));
+    }
+}
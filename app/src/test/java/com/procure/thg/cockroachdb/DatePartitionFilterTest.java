@@ -0,0 +1,48 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+class DatePartitionFilterTest {
+
+    private static final Instant THRESHOLD = Instant.parse("2025-10-14T12:00:00Z");
+
+    @Test
+    void testNewerKeepsThresholdPartitionAndLater() {
+        final DatePartitionFilter filter = new DatePartitionFilter("yyyy/MM/dd", THRESHOLD, DatePartitionFilter.Direction.NEWER);
+
+        assertEquals(3, filter.depth());
+        assertFalse(filter.include("2024/"));
+        assertTrue(filter.include("2025/"));
+        assertFalse(filter.include("2025/09/"));
+        assertTrue(filter.include("2025/10/"));
+        assertFalse(filter.include("2025/10/13/"));
+        assertTrue(filter.include("2025/10/14/"));
+        assertTrue(filter.include("2025/11/01/"));
+    }
+
+    @Test
+    void testOlderKeepsThresholdPartitionAndEarlier() {
+        final DatePartitionFilter filter = new DatePartitionFilter("yyyy/MM/dd", THRESHOLD, DatePartitionFilter.Direction.OLDER);
+
+        assertTrue(filter.include("2024/"));
+        assertTrue(filter.include("2025/09/"));
+        assertTrue(filter.include("2025/10/14/"));
+        assertFalse(filter.include("2025/10/15/"));
+        assertFalse(filter.include("2026/"));
+    }
+
+    @Test
+    void testComparesDateAtStartOfSegmentAndKeepsOtherPrefixes() {
+        final DatePartitionFilter filter = new DatePartitionFilter("yyyy/MM/dd", THRESHOLD, DatePartitionFilter.Direction.NEWER);
+
+        assertFalse(filter.include("2025/10/13-220000.00/"));
+        assertTrue(filter.include("2025/10/14-220000.00/"));
+        assertTrue(filter.include("latest/"));
+        assertTrue(filter.include("progress/"));
+    }
+}
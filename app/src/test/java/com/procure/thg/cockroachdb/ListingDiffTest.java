@@ -0,0 +1,125 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class ListingDiffTest {
+
+    @Mock
+    private S3Client targetClient;
+
+    private AutoCloseable closeable;
+
+    private static final String TARGET_BUCKET = "target-bucket";
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        // The target listing spans two pages to check the cursor follows continuation tokens
+        when(targetClient.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                && "dst/".equals(((ListObjectsV2Request) req).prefix()) && ((ListObjectsV2Request) req).continuationToken() == null)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(object("dst/a.sst", "\"1\"", 10), object("dst/b.sst", "\"2\"", 20))
+                        .isTruncated(true)
+                        .nextContinuationToken("token")
+                        .build());
+        when(targetClient.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                && "token".equals(((ListObjectsV2Request) req).continuationToken()))))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(object("dst/c.sst", "\"3\"", 30), object("dst/orphan.sst", "\"9\"", 90))
+                        .isTruncated(false)
+                        .build());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static S3Object object(final String key, final String eTag, final long size) {
+        return S3Object.builder().key(key).eTag(eTag).size(size).build();
+    }
+
+    private static List<ListingDiff.Status> statuses(final List<ListingDiff.Entry> entries) {
+        return entries.stream().map(ListingDiff.Entry::status).collect(Collectors.toList());
+    }
+
+    @Test
+    void testClassifiesAcrossPages() {
+        final ListingDiff diff = new ListingDiff(targetClient, TARGET_BUCKET, "src/", "dst/");
+
+        final List<ListingDiff.Entry> first = diff.classify(List.of(
+                object("src/a.sst", "\"1\"", 10),
+                object("src/aa.sst", "\"5\"", 50)));
+        final List<ListingDiff.Entry> second = diff.classify(List.of(
+                object("src/b.sst", "\"2\"", 21),
+                object("src/c.sst", "\"3\"", 30),
+                object("src/d.sst", "\"4\"", 40)));
+
+        assertEquals(List.of(ListingDiff.Status.IDENTICAL, ListingDiff.Status.MISSING), statuses(first));
+        assertEquals(List.of(ListingDiff.Status.CHANGED, ListingDiff.Status.IDENTICAL, ListingDiff.Status.MISSING),
+                statuses(second));
+        assertEquals("dst/aa.sst", first.get(1).targetKey());
+        assertEquals(2, diff.missingCount());
+        assertEquals(1, diff.changedCount());
+        assertEquals(2, diff.identicalCount());
+    }
+
+    @Test
+    void testComparesMultipartTargetsWithRecordedSourceETag() {
+        when(targetClient.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                && "big/".equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(object("big/a.sst", "\"abc-2\"", 200), object("big/b.sst", "\"def-2\"", 200))
+                        .isTruncated(false)
+                        .build());
+        when(targetClient.headObject(eq(HeadObjectRequest.builder().bucket(TARGET_BUCKET).key("big/a.sst").build())))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"abc-2\"").contentLength(200L)
+                        .metadata(Map.of(S3Copier.SOURCE_ETAG_METADATA, "\"1\"")).build());
+        when(targetClient.headObject(eq(HeadObjectRequest.builder().bucket(TARGET_BUCKET).key("big/b.sst").build())))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"def-2\"").contentLength(200L)
+                        .metadata(Map.of(S3Copier.SOURCE_ETAG_METADATA, "\"old\"")).build());
+        final ListingDiff diff = new ListingDiff(targetClient, TARGET_BUCKET, "src/", "big/");
+
+        final List<ListingDiff.Entry> entries = diff.classify(List.of(
+                object("src/a.sst", "\"1\"", 200),
+                object("src/b.sst", "\"2\"", 200)));
+
+        assertEquals(List.of(ListingDiff.Status.IDENTICAL, ListingDiff.Status.CHANGED), statuses(entries));
+    }
+
+    @Test
+    void testRejectsOutOfOrderSource() {
+        final ListingDiff diff = new ListingDiff(targetClient, TARGET_BUCKET, "src/", "dst/");
+        diff.classify(List.of(object("src/c.sst", "\"3\"", 30)));
+
+        assertThrows(IllegalStateException.class, () -> diff.classify(List.of(object("src/a.sst", "\"1\"", 10))));
+    }
+
+    @Test
+    void testCompareKeysUsesCodePointOrder() {
+        // U+FF5E sorts before U+1F600 in UTF-8, although its UTF-16 code unit is larger than a surrogate
+        assertTrue(ListingDiff.compareKeys("\uFF5E", "\uD83D\uDE00") < 0);
+        assertTrue(ListingDiff.compareKeys("a", "ab") < 0);
+        assertEquals(0, ListingDiff.compareKeys("key", "key"));
+    }
+}
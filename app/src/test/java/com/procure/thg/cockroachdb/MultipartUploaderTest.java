@@ -0,0 +1,178 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+class MultipartUploaderTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final long PART_SIZE = MultipartUploader.MIN_PART_SIZE;
+    private static final PutObjectRequest PUT_REQUEST = PutObjectRequest.builder()
+            .bucket("target-bucket")
+            .key("large.sst")
+            .build();
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenAnswer(invocation -> UploadPartResponse.builder()
+                        .eTag("etag-" + ((UploadPartRequest) invocation.getArgument(0)).partNumber())
+                        .build());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static ByteArrayInputStream content(final long size) {
+        return new ByteArrayInputStream(new byte[(int) size]);
+    }
+
+    @Test
+    void testUploadsPartsInOrder() throws Exception {
+        final long size = 2 * PART_SIZE + 1024;
+
+        new MultipartUploader(s3Client, PART_SIZE, 3, 1).upload(PUT_REQUEST, content(size), size);
+
+        final ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3Client, times(3)).uploadPart(parts.capture(), any(RequestBody.class));
+        assertEquals(List.of(PART_SIZE, PART_SIZE, 1024L), parts.getAllValues().stream()
+                .sorted((a, b) -> Integer.compare(a.partNumber(), b.partNumber()))
+                .map(UploadPartRequest::contentLength)
+                .collect(Collectors.toList()));
+
+        final ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(complete.capture());
+        assertEquals(List.of("etag-1", "etag-2", "etag-3"), complete.getValue().multipartUpload().parts().stream()
+                .map(CompletedPart::eTag)
+                .collect(Collectors.toList()));
+        verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testRetriesFailedPart() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(new RuntimeException("Connection reset"))
+                .thenReturn(UploadPartResponse.builder().eTag("etag-1").build());
+
+        new MultipartUploader(s3Client, PART_SIZE, 1, 2).upload(PUT_REQUEST, content(1024), 1024);
+
+        verify(s3Client, times(2)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testAbortsWhenPartKeepsFailing() {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(new RuntimeException("Access denied"));
+        final long size = 2 * PART_SIZE;
+
+        assertThrows(RuntimeException.class,
+                () -> new MultipartUploader(s3Client, PART_SIZE, 1, 1).upload(PUT_REQUEST, content(size), size));
+
+        // The failed first part stops the stream from being read further
+        verify(s3Client, times(1)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testGrowsPartSizeToStayWithinPartLimit() {
+        final MultipartUploader uploader = new MultipartUploader(s3Client, PART_SIZE, 1, 1);
+
+        assertEquals(PART_SIZE, uploader.partSize(PART_SIZE * MultipartUploader.MAX_PARTS));
+        assertEquals(PART_SIZE + 1, uploader.partSize(PART_SIZE * MultipartUploader.MAX_PARTS + 1));
+    }
+
+    @Test
+    void testUploadRangesReadsAlignedRanges() {
+        final long size = 2 * PART_SIZE + 1024;
+        final Map<Long, Integer> ranges = new ConcurrentHashMap<>();
+
+        new MultipartUploader(s3Client, PART_SIZE, 3, 1).uploadRanges(PUT_REQUEST, size, (offset, length) -> {
+            ranges.put(offset, length);
+            return new byte[length];
+        });
+
+        assertEquals(Map.of(0L, (int) PART_SIZE, PART_SIZE, (int) PART_SIZE, 2 * PART_SIZE, 1024), ranges);
+        verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testUploadRangesRetriesFailedRead() {
+        final AtomicInteger reads = new AtomicInteger();
+
+        new MultipartUploader(s3Client, PART_SIZE, 1, 2).uploadRanges(PUT_REQUEST, 1024, (offset, length) -> {
+            if (reads.incrementAndGet() == 1) {
+                throw new IOException("Connection reset");
+            }
+            return new byte[length];
+        });
+
+        assertEquals(2, reads.get());
+        verify(s3Client, times(1)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testCopyRangesUsesUploadPartCopy() {
+        when(s3Client.uploadPartCopy(any(UploadPartCopyRequest.class)))
+                .thenAnswer(invocation -> UploadPartCopyResponse.builder()
+                        .copyPartResult(CopyPartResult.builder()
+                                .eTag("etag-" + ((UploadPartCopyRequest) invocation.getArgument(0)).partNumber())
+                                .build())
+                        .build());
+        final long size = PART_SIZE + 10;
+
+        new MultipartUploader(s3Client, PART_SIZE, 2, 1).copyRanges(PUT_REQUEST, size, "source-bucket", "large.sst", "\"v1\"");
+
+        final ArgumentCaptor<UploadPartCopyRequest> copies = ArgumentCaptor.forClass(UploadPartCopyRequest.class);
+        verify(s3Client, times(2)).uploadPartCopy(copies.capture());
+        assertEquals(Set.of("bytes=0-" + (PART_SIZE - 1), "bytes=" + PART_SIZE + "-" + (size - 1)),
+                copies.getAllValues().stream().map(UploadPartCopyRequest::copySourceRange).collect(Collectors.toSet()));
+        verify(s3Client, never()).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+}
@@ -0,0 +1,67 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+    @Test
+    void testSpacesRequests() {
+        RateLimiter limiter = new RateLimiter(100);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire();
+        }
+        // The first request goes straight through, the next ten wait 10 ms each
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+
+    @Test
+    void testHalvesOnThrottleAndRecovers() {
+        RateLimiter limiter = new RateLimiter(100, Duration.ZERO);
+
+        limiter.onThrottled();
+        limiter.onThrottled();
+        assertEquals(25, limiter.currentRate(), 0.001);
+
+        limiter.onSuccess();
+        assertEquals(35, limiter.currentRate(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(100, limiter.currentRate(), 0.001);
+    }
+
+    @Test
+    void testCountsOneThrottlePerInterval() {
+        RateLimiter limiter = new RateLimiter(100, Duration.ofHours(1));
+
+        // A burst of concurrent 503s is one signal, and the rate holds until the interval is over
+        for (int i = 0; i < 10; i++) {
+            limiter.onThrottled();
+        }
+        limiter.onSuccess();
+        assertEquals(50, limiter.currentRate(), 0.001);
+    }
+
+    @Test
+    void testNeverDropsBelowOnePerSecond() {
+        RateLimiter limiter = new RateLimiter(2);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onThrottled();
+        }
+        assertEquals(1, limiter.currentRate(), 0.001);
+    }
+
+    @Test
+    void testRejectsNonPositiveRate() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+    }
+}
@@ -0,0 +1,150 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class S3BackupCleanerTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final String BUCKET_NAME = "backups";
+    private static final long THRESHOLD_SECONDS = 30L * 24 * 3600;
+    private static final Instant NOW = Instant.now();
+
+    private static final String OLD_FULL = "crdb/2025/01/01-000000.00/";
+    private static final String OLD_INCREMENTAL = "crdb/incrementals/2025/01/01-000000.00/20250102/000000.00/";
+    private static final String RECENT_FULL = "crdb/2025/02/01-000000.00/";
+    private static final String RECENT_INCREMENTAL = RECENT_FULL + "20250302/000000.00/";
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        stubListing("crdb/",
+                object(OLD_FULL + "BACKUP_MANIFEST", 60),
+                object(OLD_FULL + "data/1.sst", 60),
+                object(OLD_FULL + "progress/BACKUP-CHECKPOINT-1", 60),
+                object(OLD_INCREMENTAL + "BACKUP_MANIFEST", 59),
+                object(OLD_INCREMENTAL + "data/2.sst", 59),
+                object(RECENT_FULL + "BACKUP_MANIFEST", 40),
+                object(RECENT_FULL + "data/3.sst", 40),
+                object(RECENT_INCREMENTAL + "BACKUP_MANIFEST", 1),
+                object(RECENT_INCREMENTAL + "data/4.sst", 1));
+        stubListing(OLD_FULL,
+                object(OLD_FULL + "BACKUP_MANIFEST", 60),
+                object(OLD_FULL + "data/1.sst", 60),
+                object(OLD_FULL + "progress/BACKUP-CHECKPOINT-1", 60));
+        stubListing("crdb/incrementals/2025/01/01-000000.00/",
+                object(OLD_INCREMENTAL + "BACKUP_MANIFEST", 59),
+                object(OLD_INCREMENTAL + "data/2.sst", 59));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static S3Object object(final String key, final long ageDays) {
+        return S3Object.builder().key(key).lastModified(NOW.minusSeconds(ageDays * 24 * 3600)).build();
+    }
+
+    private void stubListing(final String prefix, final S3Object... objects) {
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && prefix.equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(ListObjectsV2Response.builder().contents(objects).isTruncated(false).build());
+    }
+
+    private static List<String> keys(final DeleteObjectsRequest request) {
+        return request.delete().objects().stream().map(object -> object.key()).collect(Collectors.toList());
+    }
+
+    @Test
+    void testDeletesExpiredChainWithManifestsLast() {
+        new S3BackupCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb").cleanOldChains();
+
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, times(3)).deleteObjects(captor.capture());
+        assertEquals(List.of(OLD_FULL + "data/1.sst"), keys(captor.getAllValues().get(0)));
+        assertEquals(List.of(OLD_INCREMENTAL + "data/2.sst"), keys(captor.getAllValues().get(1)));
+        assertEquals(List.of(OLD_FULL + "BACKUP_MANIFEST", OLD_FULL + "progress/BACKUP-CHECKPOINT-1",
+                OLD_INCREMENTAL + "BACKUP_MANIFEST"), keys(captor.getAllValues().get(2)));
+        // The full backup from 40 days ago is kept because a recent incremental builds on it
+        verify(s3Client, never()).listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && RECENT_FULL.equals(((ListObjectsV2Request) req).prefix())));
+        verify(s3Client, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    void testResolvesIncrementalsPerCollectionWithoutFolder() {
+        final String fullA = "clusterA/2025/01/01-000000.00/";
+        final String incrementalA = "clusterA/incrementals/2025/01/01-000000.00/20250301/000000.00/";
+        final String fullB = "clusterB/2025/01/01-000000.00/";
+        final String incrementalB = "clusterB/incrementals/2025/01/01-000000.00/20250102/000000.00/";
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).prefix() == null)))
+                .thenReturn(ListObjectsV2Response.builder().contents(
+                        object(fullA + "BACKUP_MANIFEST", 60),
+                        object(fullA + "data/1.sst", 60),
+                        object(incrementalA + "BACKUP_MANIFEST", 1),
+                        object(fullB + "BACKUP_MANIFEST", 60),
+                        object(fullB + "data/2.sst", 60),
+                        object(incrementalB + "BACKUP_MANIFEST", 59)).isTruncated(false).build());
+        stubListing(fullB, object(fullB + "BACKUP_MANIFEST", 60), object(fullB + "data/2.sst", 60));
+        stubListing("clusterB/incrementals/2025/01/01-000000.00/", object(incrementalB + "BACKUP_MANIFEST", 59));
+
+        new S3BackupCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, null).cleanOldChains();
+
+        // clusterA's old full backup is kept because its own recent incremental builds on it
+        verify(s3Client, never()).listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                && ((ListObjectsV2Request) req).prefix() != null && ((ListObjectsV2Request) req).prefix().startsWith("clusterA/")));
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, times(2)).deleteObjects(captor.capture());
+        assertEquals(List.of(fullB + "data/2.sst"), keys(captor.getAllValues().get(0)));
+        assertEquals(List.of(fullB + "BACKUP_MANIFEST", incrementalB + "BACKUP_MANIFEST"), keys(captor.getAllValues().get(1)));
+    }
+
+    @Test
+    void testKeepsManifestsWhenDataDeleteFails() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder()
+                .errors(S3Error.builder().key(OLD_FULL + "data/1.sst").code("AccessDenied").build())
+                .build());
+
+        new S3BackupCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb").cleanOldChains();
+
+        // Only the two data batches are sent; the manifests stay so the chain is found again next run
+        verify(s3Client, times(2)).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    void testDeletesNothingWhenListingFails() {
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenThrow(new RuntimeException("List failed"));
+
+        new S3BackupCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb").cleanOldChains();
+
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+}
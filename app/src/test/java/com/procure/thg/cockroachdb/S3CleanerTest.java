@@ -9,8 +9,10 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.Mockito.*;
@@ -37,6 +39,7 @@ class S3CleanerTest {
         setEnv("BUCKET_NAME", BUCKET_NAME);
         // Initialize S3Cleaner with mocks
         s3Cleaner = new S3Cleaner(s3Client, THRESHOLD_SECONDS, FOLDER);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
     }
 
     @AfterEach
@@ -59,6 +62,17 @@ class S3CleanerTest {
         }
     }
 
+    private static DeleteObjectsRequest deleteRequest(String... keys) {
+        List<ObjectIdentifier> objects = new ArrayList<>();
+        for (String key : keys) {
+            objects.add(ObjectIdentifier.builder().key(key).build());
+        }
+        return DeleteObjectsRequest.builder()
+                .bucket(BUCKET_NAME)
+                .delete(Delete.builder().objects(objects).quiet(true).build())
+                .build();
+    }
+
     @Test
     void testCleanOldObjectsWithValidMetadataOlderThanThreshold() {
         // Arrange
@@ -85,7 +99,7 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
     }
 
     @Test
@@ -114,7 +128,7 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
     }
 
     @Test
@@ -140,7 +154,7 @@ class S3CleanerTest {
 
         s3Cleaner.cleanOldObjects();
 
-        verify(s3Client, never()).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
     }
 
     @Test
@@ -167,7 +181,7 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
     }
 
     @Test
@@ -196,7 +210,7 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
     }
 
     @Test
@@ -217,7 +231,7 @@ class S3CleanerTest {
 
         // Assert
         verify(s3Client, never()).headObject(any(HeadObjectRequest.class));
-        verify(s3Client, never()).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
     }
 
     @Test
@@ -234,7 +248,7 @@ class S3CleanerTest {
 
         // Assert
         verify(s3Client, never()).headObject(any(HeadObjectRequest.class));
-        verify(s3Client, never()).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
     }
 
     @Test
@@ -272,8 +286,8 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test1.jpg").build()));
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test2.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test1.jpg")));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test2.jpg")));
     }
 
     @Test
@@ -295,7 +309,7 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
     }
 
     @Test
@@ -319,13 +333,13 @@ class S3CleanerTest {
                 .build();
         when(s3Client.headObject(eq(HeadObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build())))
                 .thenReturn(headResponse);
-        doThrow(new RuntimeException("Delete failed")).when(s3Client).deleteObject(any(DeleteObjectRequest.class));
+        doThrow(new RuntimeException("Delete failed")).when(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
 
         // Act
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, times(1)).deleteObjects(any(DeleteObjectsRequest.class));
     }
 
     @Test
@@ -355,6 +369,119 @@ class S3CleanerTest {
         s3Cleaner.cleanOldObjects();
 
         // Assert
-        verify(s3Client, times(1)).deleteObject(eq(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key("test.jpg").build()));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("test.jpg")));
+    }
+
+    @Test
+    void testCleanOldObjectsSplitsDeletesIntoBatchesOfThousand() {
+        // Arrange
+        Instant oldDate = THRESHOLD.minusSeconds(3600);
+        List<S3Object> objects = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            objects.add(S3Object.builder().key("shared/non-compliance/omega/test" + i + ".jpg").lastModified(oldDate).build());
+        }
+        ListObjectsV2Response response = ListObjectsV2Response.builder()
+                .contents(objects)
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(response);
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+
+        // Act
+        s3Cleaner.cleanOldObjects();
+
+        // Assert
+        verify(s3Client, times(1)).deleteObjects((DeleteObjectsRequest) argThat(req -> req instanceof DeleteObjectsRequest && ((DeleteObjectsRequest) req).delete().objects().size() == 1000));
+        verify(s3Client, times(1)).deleteObjects((DeleteObjectsRequest) argThat(req -> req instanceof DeleteObjectsRequest && ((DeleteObjectsRequest) req).delete().objects().size() == 500));
+    }
+
+    @Test
+    void testCleanOldObjectsWithPartialDeleteFailure() {
+        // Arrange
+        Instant oldDate = THRESHOLD.minusSeconds(3600);
+        ListObjectsV2Response response = ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("shared/non-compliance/omega/test1.jpg").lastModified(oldDate).build(),
+                        S3Object.builder().key("shared/non-compliance/omega/test2.jpg").lastModified(oldDate).build())
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(response);
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder()
+                .errors(S3Error.builder().key("shared/non-compliance/omega/test2.jpg").code("AccessDenied").message("Access Denied").build())
+                .build());
+
+        // Act
+        s3Cleaner.cleanOldObjects();
+
+        // Assert
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest(
+                "shared/non-compliance/omega/test1.jpg", "shared/non-compliance/omega/test2.jpg")));
+    }
+
+    @Test
+    void testHeadFreeModeDecidesFromListingOutsideWindow() {
+        // Arrange
+        s3Cleaner = new S3Cleaner(s3Client, THRESHOLD_SECONDS, FOLDER).withHeadWindowSeconds(600);
+        ListObjectsV2Response response = ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("shared/non-compliance/omega/old.jpg").lastModified(THRESHOLD.minusSeconds(3600)).build(),
+                        S3Object.builder().key("shared/non-compliance/omega/new.jpg").lastModified(THRESHOLD.plusSeconds(3600)).build())
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(response);
+
+        // Act
+        s3Cleaner.cleanOldObjects();
+
+        // Assert
+        verify(s3Client, never()).headObject(any(HeadObjectRequest.class));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/old.jpg")));
+    }
+
+    @Test
+    void testHeadFreeModeFetchesMetadataInsideWindow() {
+        // Arrange
+        s3Cleaner = new S3Cleaner(s3Client, THRESHOLD_SECONDS, FOLDER).withHeadWindowSeconds(600);
+        ListObjectsV2Response response = ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("shared/non-compliance/omega/test.jpg").lastModified(THRESHOLD.plusSeconds(300)).build())
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(response);
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("last-modified", THRESHOLD.minusSeconds(300).toString());
+        when(s3Client.headObject(eq(HeadObjectRequest.builder().bucket(BUCKET_NAME).key("shared/non-compliance/omega/test.jpg").build())))
+                .thenReturn(HeadObjectResponse.builder().metadata(metadata).build());
+
+        // Act
+        s3Cleaner.cleanOldObjects();
+
+        // Assert
+        verify(s3Client, times(1)).headObject(any(HeadObjectRequest.class));
+        verify(s3Client, times(1)).deleteObjects(eq(deleteRequest("shared/non-compliance/omega/test.jpg")));
+    }
+
+    @Test
+    void testCleanOldObjectsWithConcurrency() {
+        // Arrange
+        s3Cleaner = new S3Cleaner(s3Client, THRESHOLD_SECONDS, FOLDER).withConcurrency(4);
+        Instant oldDate = THRESHOLD.minusSeconds(3600);
+        List<S3Object> objects = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            objects.add(S3Object.builder().key("shared/non-compliance/omega/test" + i + ".jpg").lastModified(oldDate).build());
+        }
+        objects.add(S3Object.builder().key("shared/non-compliance/omega/new.jpg").lastModified(NOW).build());
+        ListObjectsV2Response response = ListObjectsV2Response.builder()
+                .contents(objects)
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(response);
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+
+        // Act
+        s3Cleaner.cleanOldObjects();
+
+        // Assert
+        verify(s3Client, times(21)).headObject(any(HeadObjectRequest.class));
+        verify(s3Client, times(1)).deleteObjects((DeleteObjectsRequest) argThat(req -> req instanceof DeleteObjectsRequest && ((DeleteObjectsRequest) req).delete().objects().size() == 20));
     }
-}
\ No newline at end of file
+}
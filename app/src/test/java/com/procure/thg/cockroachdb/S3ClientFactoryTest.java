@@ -0,0 +1,29 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URI;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+class S3ClientFactoryTest {
+
+    @Test
+    void testParseBackend() {
+        assertEquals(S3ClientFactory.Backend.CRT, S3ClientFactory.Backend.parse("crt", S3ClientFactory.Backend.APACHE));
+        assertEquals(S3ClientFactory.Backend.NETTY, S3ClientFactory.Backend.parse("Netty", S3ClientFactory.Backend.APACHE));
+        assertEquals(S3ClientFactory.Backend.APACHE, S3ClientFactory.Backend.parse(null, S3ClientFactory.Backend.APACHE));
+        assertEquals(S3ClientFactory.Backend.NETTY, S3ClientFactory.Backend.parse("", S3ClientFactory.Backend.NETTY));
+        assertThrows(IllegalArgumentException.class, () -> S3ClientFactory.Backend.parse("okhttp", S3ClientFactory.Backend.APACHE));
+    }
+
+    @Test
+    void testApacheHasNoAsyncClient() {
+        S3ClientFactory factory = new S3ClientFactory("source", AnonymousCredentialsProvider.create(),
+                URI.create("http://localhost:9000"), Region.EU_WEST_1, S3ClientFactory.Backend.APACHE);
+
+        assertThrows(IllegalArgumentException.class, () -> factory.asyncClient(16));
+    }
+}
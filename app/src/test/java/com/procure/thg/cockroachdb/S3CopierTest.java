@@ -1,6 +1,9 @@
 package com.procure.thg.cockroachdb;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -8,24 +11,51 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 
 class S3CopierTest {
 
@@ -39,6 +69,8 @@ class S3CopierTest {
 
     private final String sourceBucket = "source-bucket";
     private final String targetBucket = "target-bucket";
+    private static final DatePartitionFilter DAY_LAYOUT =
+            new DatePartitionFilter("yyyy/MM/dd", Instant.now(), DatePartitionFilter.Direction.NEWER);
 
     @BeforeEach
     public void openMocks() {
@@ -279,4 +311,644 @@ class S3CopierTest {
                 (RequestBody) any()
         );
     }
+
+    @Test
+    void testCopyRecentObjectsWithPagination() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        ListObjectsV2Response page1 = ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("first.txt").lastModified(now.minusSeconds(5 * 3600)).build())
+                .isTruncated(true)
+                .nextContinuationToken("token")
+                .build();
+        ListObjectsV2Response page2 = ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("second.txt").lastModified(now.minusSeconds(5 * 3600)).build())
+                .isTruncated(false)
+                .build();
+
+        when(sourceClient.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).continuationToken() == null))).thenReturn(page1);
+        when(sourceClient.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && "token".equals(((ListObjectsV2Request) req).continuationToken())))).thenReturn(page2);
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        verify(targetClient).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("first.txt").build()),
+                (RequestBody) any()
+        );
+        verify(targetClient).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("second.txt").build()),
+                (RequestBody) any()
+        );
+    }
+
+    @Test
+    void testCopyRecentObjectsConcurrently() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        final List<S3Object> objects = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            objects.add(S3Object.builder().key("file-" + i + ".txt").lastModified(now.minusSeconds(5 * 3600)).build());
+        }
+
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder().contents(objects).isTruncated(false).build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    if ("file-3.txt".equals(((GetObjectRequest) invocation.getArgument(0)).key())) {
+                        throw new RuntimeException("Get failed");
+                    }
+                    return new ResponseInputStream<>(
+                            GetObjectResponse.builder().contentLength(7L).build(),
+                            new ByteArrayInputStream("content".getBytes()));
+                });
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        // Two uploads only get past the latch if they are in flight at the same time
+        final CountDownLatch inFlight = new CountDownLatch(2);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        when(targetClient.putObject(any(PutObjectRequest.class), (RequestBody) any()))
+                .thenAnswer(invocation -> {
+                    inFlight.countDown();
+                    if (inFlight.await(5, TimeUnit.SECONDS)) {
+                        overlapped.set(true);
+                    }
+                    return PutObjectResponse.builder().build();
+                });
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withCopyConcurrency(4);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        // Every transfer has finished, failed ones included, by the time the run returns
+        verify(targetClient, times(9)).putObject(any(PutObjectRequest.class), (RequestBody) any());
+        verify(sourceClient, times(10)).getObject(any(GetObjectRequest.class));
+        assertTrue(overlapped.get());
+    }
+
+    @Test
+    void testCopyRecentObjectsWithListingDiff() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("changed.txt").eTag("\"new\"").size(7L).lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("missing.txt").eTag("\"m\"").size(7L).lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("same.txt").eTag("\"s\"").size(7L).lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("changed.txt").eTag("\"old\"").size(7L).build(),
+                                S3Object.builder().key("same.txt").eTag("\"s\"").size(7L).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, false)
+                .withListingDiff(true);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        // Without copyModified only the missing key is copied, and no HEAD is sent to either side
+        verify(targetClient, times(1)).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("missing.txt").build()),
+                (RequestBody) any()
+        );
+        verify(targetClient, times(1)).putObject(any(PutObjectRequest.class), (RequestBody) any());
+        verify(targetClient, never()).headObject(any(HeadObjectRequest.class));
+        verify(sourceClient, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    void testCopyModifiedSkipsMultipartCopyOfSameSource() {
+        final var now = Instant.now();
+        final long size = 200L * 1024 * 1024;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("big.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"src\"").contentLength(size).build());
+        // The multipart upload gave the target its own ETag, and the copy recorded the source one
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"abc-2\"").contentLength(size)
+                        .metadata(Map.of(S3Copier.SOURCE_ETAG_METADATA, "\"src\"")).build());
+
+        new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .copyRecentObjects(10 * 3600);
+
+        verify(sourceClient, never()).getObject(any(GetObjectRequest.class));
+        verify(targetClient, never()).putObject(any(PutObjectRequest.class), (RequestBody) any());
+    }
+
+    @Test
+    void testCopyRecentObjectsWithTargetIndex(@TempDir final Path indexDirectory) throws Exception {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("changed.txt").eTag("\"new\"").size(7L).lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("missing.txt").eTag("\"m\"").size(7L).lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("same.txt").eTag("\"s\"").size(7L).lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        // Only listed once, to build the index on its first use
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("changed.txt").eTag("\"old\"").size(7L).lastModified(now).build(),
+                                S3Object.builder().key("same.txt").eTag("\"s\"").size(7L).lastModified(now).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+
+        try (TargetIndex index = TargetIndex.open(indexDirectory.resolve("target.index"), "target-bucket/")) {
+            S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                    .withTargetIndex(index, Duration.ofHours(24));
+            copier.copyRecentObjects(thresholdSeconds);
+            copier.copyRecentObjects(thresholdSeconds);
+
+            assertEquals("\"new\"", index.get("changed.txt").eTag());
+            assertEquals("\"m\"", index.get("missing.txt").eTag());
+            assertEquals(4, copier.indexSkippedCount());
+        }
+
+        verify(targetClient, times(1)).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("changed.txt").build()), (RequestBody) any());
+        verify(targetClient, times(1)).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("missing.txt").build()), (RequestBody) any());
+        verify(targetClient, times(2)).putObject(any(PutObjectRequest.class), (RequestBody) any());
+        verify(targetClient, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+        verify(targetClient, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    void testTargetIndexSkipsMultipartCopyAfterReconcile(@TempDir final Path indexDirectory) throws Exception {
+        final var now = Instant.now();
+        final long size = 200L * 1024 * 1024;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("big.sst").eTag("\"src\"").size(size).lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        // Nothing in the index yet, so the reconcile only sees the target's multipart ETag
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("big.sst").eTag("\"abc-2\"").size(size).lastModified(now).build())
+                        .isTruncated(false)
+                        .build());
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"abc-2\"").contentLength(size)
+                        .metadata(Map.of(S3Copier.SOURCE_ETAG_METADATA, "\"src\"")).build());
+
+        try (TargetIndex index = TargetIndex.open(indexDirectory.resolve("target.index"), "target-bucket/")) {
+            S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                    .withTargetIndex(index, Duration.ofHours(24));
+            copier.copyRecentObjects(10 * 3600);
+
+            assertEquals(1, copier.indexSkippedCount());
+        }
+
+        verify(sourceClient, never()).getObject(any(GetObjectRequest.class));
+        verify(targetClient, never()).putObject(any(PutObjectRequest.class), (RequestBody) any());
+    }
+
+    @Test
+    void testTargetIndexFallsBackToHeadWhenReconcileFails(@TempDir final Path indexDirectory) throws Exception {
+        final var now = Instant.now();
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("missing.txt").eTag("\"m\"").size(7L).lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class))).thenThrow(new RuntimeException("List failed"));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+
+        try (TargetIndex index = TargetIndex.open(indexDirectory.resolve("target.index"), "target-bucket/")) {
+            new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                    .withTargetIndex(index, Duration.ofHours(24))
+                    .copyRecentObjects(10 * 3600);
+
+            // The run still copies, and the index is left to be reconciled next time
+            assertTrue(index.needsReconcile(Duration.ofHours(24)));
+        }
+
+        verify(targetClient).headObject(eq(HeadObjectRequest.builder().bucket(targetBucket).key("missing.txt").build()));
+        verify(targetClient).putObject(
+                eq(PutObjectRequest.builder().bucket(targetBucket).key("missing.txt").build()), (RequestBody) any());
+    }
+
+    @Test
+    void testCopyRecentObjectsStartsAfterWatermark(@TempDir final Path watermarkDirectory) {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("backups/2025/10/14/a.sst").lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("backups/2025/10/15/b.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        final Path file = watermarkDirectory.resolve("watermark.properties");
+
+        new S3Copier(sourceClient, sourceBucket, "backups", targetClient, targetBucket, "archive", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "backups"), DAY_LAYOUT)
+                .copyRecentObjects(thresholdSeconds);
+        new S3Copier(sourceClient, sourceBucket, "backups", targetClient, targetBucket, "archive", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "backups"), DAY_LAYOUT)
+                .copyRecentObjects(thresholdSeconds);
+
+        // The second run lists again from the date directory holding the last key of the first
+        verify(sourceClient, times(1)).listObjectsV2(
+                (ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && ((ListObjectsV2Request) req).startAfter() == null));
+        verify(sourceClient, times(1)).listObjectsV2(
+                (ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request
+                        && "backups/2025/10/15/".equals(((ListObjectsV2Request) req).startAfter())));
+    }
+
+    @Test
+    void testWatermarkIgnoresKeysOutsideDateLayout(@TempDir final Path watermarkDirectory) {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        // incrementals/ and metadata/ sort after the dated full backups
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("backups/2025/10/14-220000.00/BACKUP_MANIFEST").lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("backups/incrementals/2025/10/14-220000.00/20251015/BACKUP_MANIFEST").lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("backups/metadata/latest/LATEST").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())
+                ));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        final Path file = watermarkDirectory.resolve("watermark.properties");
+
+        new S3Copier(sourceClient, sourceBucket, "backups", targetClient, targetBucket, "archive", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "backups"), DAY_LAYOUT)
+                .copyRecentObjects(thresholdSeconds);
+
+        assertEquals("backups/2025/10/14-220000.00/",
+                new Watermark(Checkpoint.localFile(file), "backups").startAfter());
+    }
+
+    @Test
+    void testCopyFailureKeepsWatermark(@TempDir final Path watermarkDirectory) {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("backups/2025/10/15/b.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenThrow(new IllegalStateException("connection reset"));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        final Path file = watermarkDirectory.resolve("watermark.properties");
+
+        new S3Copier(sourceClient, sourceBucket, "backups", targetClient, targetBucket, "archive", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "backups"), DAY_LAYOUT)
+                .copyRecentObjects(thresholdSeconds);
+
+        assertTrue(Files.notExists(file));
+    }
+
+    @Test
+    void testCopyLargeObjectWithRangedGets() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        final long size = 100L * 1024 * 1024;
+        final long partSize = 5L * 1024 * 1024;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("large.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenReturn(new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(size).eTag("\"v1\"").build(),
+                        new ByteArrayInputStream(new byte[0])));
+        when(sourceClient.getObjectAsBytes(any(GetObjectRequest.class)))
+                .thenReturn(ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), new byte[(int) partSize]));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        when(targetClient.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(targetClient.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("part").build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withMultipartUploader(new MultipartUploader(targetClient, partSize, 2, 1))
+                .withRangedGet(true);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        // Every part is read with its own ranged GET, pinned to the ETag seen by the first GET
+        verify(sourceClient, times(20)).getObjectAsBytes((GetObjectRequest) argThat(req -> req instanceof GetObjectRequest
+                && "\"v1\"".equals(((GetObjectRequest) req).ifMatch())
+                && ((GetObjectRequest) req).range().startsWith("bytes=")));
+        verify(sourceClient).getObjectAsBytes((GetObjectRequest) argThat(req -> req instanceof GetObjectRequest
+                && ("bytes=" + (size - partSize) + "-" + (size - 1)).equals(((GetObjectRequest) req).range())));
+        verify(targetClient, times(20)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(targetClient).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(targetClient, never()).putObject(any(PutObjectRequest.class), (RequestBody) any());
+    }
+
+    @Test
+    void testVerifiedLargeObjectChecksMd5BeforeCompleting() {
+        final var now = Instant.now();
+        final long size = 100L * 1024 * 1024;
+        final byte[] content = new byte[(int) size];
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("large.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        // A single-part ETag that is not the MD5 of the bytes served
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(size).eTag("\"0123456789abcdef0123456789abcdef\"").build(),
+                        new ByteArrayInputStream(content)));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        when(targetClient.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(targetClient.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("part").build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withMultipartUploader(new MultipartUploader(targetClient, 50L * 1024 * 1024, 2, 1))
+                .withChecksumVerification(true);
+        copier.copyRecentObjects(10 * 3600);
+
+        // The object is streamed rather than read in ranges, and each mismatched attempt is aborted
+        verify(sourceClient, never()).getObjectAsBytes(any(GetObjectRequest.class));
+        verify(sourceClient, times(3)).getObject(any(GetObjectRequest.class));
+        verify(targetClient, times(3)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(targetClient, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void testCopyRecentObjectsServerSide() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        final long largeSize = 100L * 1024 * 1024;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("large.sst").lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("small.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.headObject(eq(HeadObjectRequest.builder().bucket(sourceBucket).key("small.sst").build())))
+                .thenReturn(HeadObjectResponse.builder().contentLength(7L).eTag("\"small\"").lastModified(now).build());
+        when(sourceClient.headObject(eq(HeadObjectRequest.builder().bucket(sourceBucket).key("large.sst").build())))
+                .thenReturn(HeadObjectResponse.builder().contentLength(largeSize).eTag("\"large\"").lastModified(now).build());
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        when(targetClient.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(targetClient.uploadPartCopy(any(UploadPartCopyRequest.class)))
+                .thenReturn(UploadPartCopyResponse.builder().copyPartResult(CopyPartResult.builder().eTag("part").build()).build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withMultipartUploader(new MultipartUploader(targetClient, 50L * 1024 * 1024, 2, 1))
+                .withServerSideCopy(true);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        verify(targetClient).copyObject((CopyObjectRequest) argThat(req -> req instanceof CopyObjectRequest
+                && sourceBucket.equals(((CopyObjectRequest) req).sourceBucket())
+                && "small.sst".equals(((CopyObjectRequest) req).sourceKey())
+                && "\"small\"".equals(((CopyObjectRequest) req).copySourceIfMatch())));
+        verify(targetClient, times(2)).uploadPartCopy((UploadPartCopyRequest) argThat(req -> req instanceof UploadPartCopyRequest
+                && "\"large\"".equals(((UploadPartCopyRequest) req).copySourceIfMatch())));
+        verify(targetClient).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        // No payload passes through the copier
+        verify(sourceClient, never()).getObject(any(GetObjectRequest.class));
+        verify(targetClient, never()).putObject(any(PutObjectRequest.class), (RequestBody) any());
+    }
+
+    @Test
+    void testCopyUnknownLengthObjectSpillsToDisk(@TempDir final Path spillDirectory) throws Exception {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(S3Object.builder().key("unknown.sst").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenReturn(new ResponseInputStream<>(
+                        GetObjectResponse.builder().build(),
+                        new ByteArrayInputStream("content".getBytes())));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        final List<String> uploaded = new ArrayList<>();
+        when(targetClient.putObject(any(PutObjectRequest.class), (RequestBody) any()))
+                .thenAnswer(invocation -> {
+                    final RequestBody body = invocation.getArgument(1);
+                    // The body has a known length and is read back from the spill file
+                    assertEquals(7L, body.contentLength());
+                    try (InputStream in = body.contentStreamProvider().newStream()) {
+                        uploaded.add(new String(in.readAllBytes()));
+                    }
+                    return PutObjectResponse.builder().build();
+                });
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withSpill(spillDirectory, -1);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        assertEquals(List.of("content"), uploaded);
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testCopyVerifiesChecksums() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                        .contents(
+                                S3Object.builder().key("good.txt").lastModified(now.minusSeconds(3600)).build(),
+                                S3Object.builder().key("corrupt.txt").lastModified(now.minusSeconds(3600)).build())
+                        .isTruncated(false)
+                        .build());
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    final boolean good = "good.txt".equals(((GetObjectRequest) invocation.getArgument(0)).key());
+                    // corrupt.txt arrives with bytes that do not hash to its ETag
+                    return new ResponseInputStream<>(
+                            GetObjectResponse.builder().contentLength(7L).eTag("\"9a0364b9e99bb480dd25e1f0284c8555\"").build(),
+                            new ByteArrayInputStream((good ? "content" : "c0ntent").getBytes()));
+                });
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, true)
+                .withChecksumVerification(true);
+        copier.copyRecentObjects(thresholdSeconds);
+
+        verify(targetClient).putObject((PutObjectRequest) argThat(req -> req instanceof PutObjectRequest
+                && "good.txt".equals(((PutObjectRequest) req).key())
+                && "mgNkuembtIDdJeHwKEyFVQ==".equals(((PutObjectRequest) req).contentMD5())
+                && "61af7533".equals(((PutObjectRequest) req).metadata().get("crc32c"))), (RequestBody) any());
+        verify(targetClient, times(1)).putObject(any(PutObjectRequest.class), (RequestBody) any());
+        // The corrupt object is fetched again before the copy gives up
+        verify(sourceClient, times(3)).getObject(eq(GetObjectRequest.builder().bucket(sourceBucket).key("corrupt.txt").build()));
+    }
+
+    @Test
+    void testSyncMetadataSkipsUnchangedObjects() {
+        final var lastModified = Instant.now().minusSeconds(60);
+        final var metadata = Map.of("owner", "procurement");
+        when(targetClient.headObject((HeadObjectRequest) argThat(req -> req instanceof HeadObjectRequest && ((HeadObjectRequest) req).key().equals("same.csv"))))
+                .thenReturn(HeadObjectResponse.builder()
+                        .metadata(Map.of("owner", "procurement", "x-amz-meta-last-modified", lastModified.toString(),
+                                "crc32c", "0a1b2c3d", S3Copier.SOURCE_ETAG_METADATA, "\"src\""))
+                        .build());
+        when(targetClient.headObject((HeadObjectRequest) argThat(req -> req instanceof HeadObjectRequest && ((HeadObjectRequest) req).key().equals("stale.csv"))))
+                .thenReturn(HeadObjectResponse.builder()
+                        .metadata(Map.of("owner", "someone-else", "crc32c", "0a1b2c3d", S3Copier.SOURCE_ETAG_METADATA, "\"src\""))
+                        .build());
+        when(sourceClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().metadata(metadata).lastModified(lastModified).build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, false);
+        copier.syncObjectMetadata("same.csv");
+        copier.syncObjectMetadata("stale.csv");
+
+        verify(targetClient, times(1)).copyObject(any(CopyObjectRequest.class));
+        // The stored checksum and source ETag are carried over rather than dropped by the rewrite
+        verify(targetClient).copyObject((CopyObjectRequest) argThat(req -> req instanceof CopyObjectRequest
+                && ((CopyObjectRequest) req).destinationKey().equals("stale.csv")
+                && "procurement".equals(((CopyObjectRequest) req).metadata().get("owner"))
+                && "0a1b2c3d".equals(((CopyObjectRequest) req).metadata().get("crc32c"))
+                && "\"src\"".equals(((CopyObjectRequest) req).metadata().get(S3Copier.SOURCE_ETAG_METADATA))));
+        assertEquals(1, copier.metadataRewrittenCount());
+        assertEquals(1, copier.metadataUnchangedCount());
+    }
+
+    @Test
+    void testSyncMetadataSkipsCopierWrittenTarget() {
+        final var lastModified = Instant.now().minusSeconds(60);
+        // The source was itself copied from elsewhere, so it carries a source ETag of its own
+        when(sourceClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"src\"").lastModified(lastModified)
+                        .metadata(Map.of("owner", "procurement", S3Copier.SOURCE_ETAG_METADATA, "\"upstream\"")).build());
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"abc-2\"")
+                        .metadata(Map.of("owner", "procurement", "x-amz-meta-last-modified", lastModified.toString(),
+                                S3Copier.SOURCE_ETAG_METADATA, "\"src\""))
+                        .build());
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, false);
+        copier.syncObjectMetadata("copied.sst");
+
+        verify(targetClient, never()).copyObject(any(CopyObjectRequest.class));
+        assertEquals(1, copier.metadataUnchangedCount());
+    }
+
+    @Test
+    void testSyncMetadataRetriesThrottledRequest() {
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().metadata(Map.of()).build());
+        when(sourceClient.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().metadata(Map.of("owner", "procurement")).lastModified(Instant.now()).build());
+        when(targetClient.copyObject(any(CopyObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(503).message("Slow Down").build())
+                .thenReturn(null);
+        final RateLimiter limiter = new RateLimiter(1000);
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, false)
+                .withMetadataRateLimiter(limiter);
+        copier.syncObjectMetadata("stale.csv");
+
+        // The key is sent again at the lowered rate rather than dropped
+        verify(targetClient, times(2)).copyObject(any(CopyObjectRequest.class));
+        assertEquals(1, copier.metadataRewrittenCount());
+        assertEquals(500, limiter.currentRate(), 0.001);
+    }
+
+    @Test
+    void testSyncMetadataConcurrentlyWithParallelHeads() {
+        final var now = Instant.now();
+        final int thresholdSeconds = 10 * 3600;
+        final List<S3Object> objects = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            objects.add(S3Object.builder().key("file-" + i + ".txt").lastModified(now.minusSeconds(3600)).build());
+        }
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder().contents(objects).isTruncated(false).build());
+        // Both HEADs of a key only get past its latch if they are in flight at the same time
+        final Map<String, CountDownLatch> headsInFlight = new ConcurrentHashMap<>();
+        final AtomicInteger overlapped = new AtomicInteger();
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    final CountDownLatch latch = headsInFlight.computeIfAbsent(
+                            ((HeadObjectRequest) invocation.getArgument(0)).key(), key -> new CountDownLatch(2));
+                    latch.countDown();
+                    latch.await(5, TimeUnit.SECONDS);
+                    return HeadObjectResponse.builder().metadata(Map.of()).build();
+                });
+        when(sourceClient.headObject(any(HeadObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    final CountDownLatch latch = headsInFlight.computeIfAbsent(
+                            ((HeadObjectRequest) invocation.getArgument(0)).key(), key -> new CountDownLatch(2));
+                    latch.countDown();
+                    if (latch.await(5, TimeUnit.SECONDS)) {
+                        overlapped.incrementAndGet();
+                    }
+                    return HeadObjectResponse.builder().metadata(Map.of("owner", "procurement")).lastModified(now).build();
+                });
+
+        S3Copier copier = new S3Copier(sourceClient, sourceBucket, null, targetClient, targetBucket, null, false)
+                .withMetadataConcurrency(4)
+                .withMetadataRateLimiter(new RateLimiter(1000));
+        copier.syncMetaDataRecentObjects(thresholdSeconds);
+
+        verify(targetClient, times(8)).headObject(any(HeadObjectRequest.class));
+        verify(sourceClient, times(8)).headObject(any(HeadObjectRequest.class));
+        verify(targetClient, times(8)).copyObject(any(CopyObjectRequest.class));
+        assertEquals(8, copier.metadataRewrittenCount());
+        assertEquals(8, overlapped.get());
+    }
 }
@@ -0,0 +1,118 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
+import software.amazon.awssdk.services.s3.model.ListMultipartUploadsResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.Part;
+
+class S3MultipartReaperTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final String BUCKET_NAME = "backups";
+    private static final long THRESHOLD_SECONDS = 24 * 3600;
+    private static final Instant NOW = Instant.now();
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    void testAbortsOnlyStaleUploads() {
+        ListMultipartUploadsResponse response = ListMultipartUploadsResponse.builder()
+                .uploads(MultipartUpload.builder().key("images/stale.bin").uploadId("stale").initiated(NOW.minusSeconds(3 * 24 * 3600)).build(),
+                        MultipartUpload.builder().key("images/active.bin").uploadId("active").initiated(NOW.minusSeconds(600)).build())
+                .isTruncated(false)
+                .build();
+        when(s3Client.listMultipartUploads(any(ListMultipartUploadsRequest.class))).thenReturn(response);
+        when(s3Client.listParts(any(ListPartsRequest.class))).thenReturn(ListPartsResponse.builder()
+                .parts(Part.builder().partNumber(1).size(5L * 1024 * 1024).build(),
+                        Part.builder().partNumber(2).size(1024L).build())
+                .isTruncated(false)
+                .build());
+
+        final S3MultipartReaper reaper = new S3MultipartReaper(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "images")
+                .withConcurrency(2);
+        reaper.abortStaleUploads();
+
+        assertEquals(1, reaper.abortedCount());
+        assertEquals(0, reaper.failedCount());
+        assertEquals(2, reaper.partsReclaimedCount());
+        assertEquals(5L * 1024 * 1024 + 1024, reaper.bytesReclaimedCount());
+        verify(s3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client).abortMultipartUpload(eq(AbortMultipartUploadRequest.builder()
+                .bucket(BUCKET_NAME).key("images/stale.bin").uploadId("stale").build()));
+        verify(s3Client, never()).abortMultipartUpload(eq(AbortMultipartUploadRequest.builder()
+                .bucket(BUCKET_NAME).key("images/active.bin").uploadId("active").build()));
+    }
+
+    @Test
+    void testFollowsTruncatedUploadAndPartListings() {
+        final Instant stale = NOW.minusSeconds(3 * 24 * 3600);
+        when(s3Client.listMultipartUploads(any(ListMultipartUploadsRequest.class)))
+                .thenReturn(ListMultipartUploadsResponse.builder()
+                        .uploads(MultipartUpload.builder().key("a.bin").uploadId("a").initiated(stale).build())
+                        .isTruncated(true)
+                        .nextKeyMarker("a.bin")
+                        .nextUploadIdMarker("a")
+                        .build());
+        when(s3Client.listMultipartUploads((ListMultipartUploadsRequest) argThat(req -> req instanceof ListMultipartUploadsRequest
+                && "a.bin".equals(((ListMultipartUploadsRequest) req).keyMarker())
+                && "a".equals(((ListMultipartUploadsRequest) req).uploadIdMarker()))))
+                .thenReturn(ListMultipartUploadsResponse.builder()
+                        .uploads(MultipartUpload.builder().key("b.bin").uploadId("b").initiated(stale).build())
+                        .isTruncated(false)
+                        .build());
+        when(s3Client.listParts(any(ListPartsRequest.class)))
+                .thenReturn(ListPartsResponse.builder()
+                        .parts(Part.builder().partNumber(1).size(100L).build())
+                        .isTruncated(true)
+                        .nextPartNumberMarker(1)
+                        .build());
+        when(s3Client.listParts((ListPartsRequest) argThat(req -> req instanceof ListPartsRequest
+                && Integer.valueOf(1).equals(((ListPartsRequest) req).partNumberMarker()))))
+                .thenReturn(ListPartsResponse.builder()
+                        .parts(Part.builder().partNumber(2).size(10L).build())
+                        .isTruncated(false)
+                        .build());
+
+        final S3MultipartReaper reaper = new S3MultipartReaper(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, null);
+        reaper.abortStaleUploads();
+
+        verify(s3Client, times(2)).listMultipartUploads(any(ListMultipartUploadsRequest.class));
+        verify(s3Client, times(4)).listParts(any(ListPartsRequest.class));
+        verify(s3Client).abortMultipartUpload(eq(AbortMultipartUploadRequest.builder()
+                .bucket(BUCKET_NAME).key("b.bin").uploadId("b").build()));
+        assertEquals(2, reaper.abortedCount());
+        assertEquals(4, reaper.partsReclaimedCount());
+        assertEquals(220, reaper.bytesReclaimedCount());
+    }
+}
@@ -0,0 +1,105 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class S3RetentionCleanerTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final String BUCKET_NAME = "backups";
+    private static final long THRESHOLD_SECONDS = 24 * 3600;
+    private static final Instant NOW = Instant.now();
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static S3Object object(final String key, final long ageDays) {
+        return S3Object.builder().key(key).lastModified(NOW.minusSeconds(ageDays * 24 * 3600)).build();
+    }
+
+    private void stubListing(final String prefix, final S3Object... objects) {
+        when(s3Client.listObjectsV2((ListObjectsV2Request) argThat(req -> req instanceof ListObjectsV2Request && prefix.equals(((ListObjectsV2Request) req).prefix()))))
+                .thenReturn(ListObjectsV2Response.builder().contents(objects).isTruncated(false).build());
+    }
+
+    @Test
+    void testKeepsNewestGroupsPerParent() {
+        stubListing("crdb/",
+                object("crdb/east/b1/data.sst", 30),
+                object("crdb/east/b2/data.sst", 20),
+                object("crdb/east/b3/data.sst", 10),
+                object("crdb/west/b1/data.sst", 40),
+                object("crdb/README", 90));
+        stubListing("crdb/east/b1/", object("crdb/east/b1/data.sst", 30));
+
+        new S3RetentionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb", 2, 2).cleanExcessGroups();
+
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(captor.capture());
+        final Set<String> deleted = captor.getAllValues().stream()
+                .flatMap(request -> request.delete().objects().stream())
+                .map(object -> object.key())
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("crdb/east/b1/data.sst"), deleted);
+    }
+
+    @Test
+    void testKeepsYoungObjectsInExpiredGroups() {
+        stubListing("crdb/",
+                object("crdb/east/b1/old.sst", 30),
+                object("crdb/east/b1/late.sst", 0),
+                object("crdb/east/b2/data.sst", 20));
+        stubListing("crdb/east/b1/", object("crdb/east/b1/old.sst", 30), object("crdb/east/b1/late.sst", 0));
+        stubListing("crdb/east/b2/", object("crdb/east/b2/data.sst", 20));
+
+        // b1 holds the newest object, so b2 is the group outside the newest one
+        new S3RetentionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb", 1, 2).cleanExcessGroups();
+
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(captor.capture());
+        assertEquals(List.of("crdb/east/b2/data.sst"), captor.getValue().delete().objects().stream()
+                .map(object -> object.key()).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testDeletesNothingWhenListingFails() {
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenThrow(new RuntimeException("List failed"));
+
+        new S3RetentionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, "crdb", 1, 2).cleanExcessGroups();
+
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+}
@@ -0,0 +1,125 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteMarkerEntry;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+class S3VersionCleanerTest {
+
+    @Mock
+    private S3Client s3Client;
+
+    private AutoCloseable closeable;
+
+    private static final String BUCKET_NAME = "backups";
+    private static final long THRESHOLD_SECONDS = 24 * 3600;
+    private static final Instant NOW = Instant.now();
+    private static final Instant OLD = NOW.minusSeconds(3 * 24 * 3600);
+    private static final Instant OLDER = NOW.minusSeconds(5 * 24 * 3600);
+    private static final Instant RECENT = NOW.minusSeconds(3600);
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    private static ObjectVersion version(final String key, final String versionId, final Instant modified, final boolean latest) {
+        return ObjectVersion.builder().key(key).versionId(versionId).lastModified(modified).isLatest(latest).build();
+    }
+
+    private static DeleteMarkerEntry marker(final String key, final String versionId, final Instant modified, final boolean latest) {
+        return DeleteMarkerEntry.builder().key(key).versionId(versionId).lastModified(modified).isLatest(latest).build();
+    }
+
+    private static List<String> deletedIds(final DeleteObjectsRequest request) {
+        return request.delete().objects().stream()
+                .map(object -> object.key() + "@" + object.versionId())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testDeletesOldNoncurrentVersionsAndOrphanedMarkers() {
+        ListObjectVersionsResponse response = ListObjectVersionsResponse.builder()
+                .versions(
+                        version("a", "a2", OLD, true),
+                        version("a", "a1", OLDER, false),
+                        version("b", "b1", OLDER, false),
+                        version("c", "c2", RECENT, true),
+                        version("c", "c1", OLD, false),
+                        version("d", "d1", OLD, false))
+                .deleteMarkers(
+                        marker("b", "bm", OLD, true),
+                        marker("d", "dm", RECENT, true))
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class))).thenReturn(response);
+
+        new S3VersionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, null).cleanOldVersions();
+
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, times(2)).deleteObjects(captor.capture());
+        assertEquals(List.of("a@a1", "b@b1"), deletedIds(captor.getAllValues().get(0)));
+        assertEquals(List.of("b@bm"), deletedIds(captor.getAllValues().get(1)));
+    }
+
+    @Test
+    void testKeepsMarkerWhenVersionDeleteFails() {
+        ListObjectVersionsResponse response = ListObjectVersionsResponse.builder()
+                .versions(version("b", "b1", OLDER, false))
+                .deleteMarkers(marker("b", "bm", OLD, true))
+                .isTruncated(false)
+                .build();
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class))).thenReturn(response);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenThrow(new RuntimeException("Delete failed"));
+
+        new S3VersionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, null).cleanOldVersions();
+
+        verify(s3Client, times(1)).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    void testKeepsMarkerWhenListingFailsMidKey() {
+        ListObjectVersionsResponse firstPage = ListObjectVersionsResponse.builder()
+                .versions(version("b", "b2", OLDER, false))
+                .deleteMarkers(marker("b", "bm", OLD, true))
+                .isTruncated(true)
+                .nextKeyMarker("b")
+                .nextVersionIdMarker("b2")
+                .build();
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(firstPage)
+                .thenThrow(new RuntimeException("List failed"));
+
+        new S3VersionCleaner(s3Client, BUCKET_NAME, THRESHOLD_SECONDS, null).cleanOldVersions();
+
+        // b1 may still exist on the unlisted page, so removing the marker would bring the object back
+        final ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, times(1)).deleteObjects(captor.capture());
+        assertEquals(List.of("b@b2"), deletedIds(captor.getValue()));
+    }
+}
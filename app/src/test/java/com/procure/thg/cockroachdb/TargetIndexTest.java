@@ -0,0 +1,117 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class TargetIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRestoresEntriesFromSnapshotAndJournal() throws Exception {
+        final Path file = tempDir.resolve("target.index");
+        try (TargetIndex index = TargetIndex.open(file, "bucket/dst/")) {
+            index.put("dst/a.txt", "\"etag-a\"", 10);
+        }
+        // Left unclosed, so the second key only reaches the journal
+        final TargetIndex crashed = TargetIndex.open(file, "bucket/dst/");
+        crashed.put("dst/tab\tkey.txt", "\"etag-b\"", 20);
+        crashed.remove("dst/a.txt");
+
+        try (TargetIndex reopened = TargetIndex.open(file, "bucket/dst/")) {
+            assertNull(reopened.get("dst/a.txt"));
+            assertEquals("\"etag-b\"", reopened.get("dst/tab\tkey.txt").eTag());
+            assertEquals(20, reopened.get("dst/tab\tkey.txt").size());
+            assertEquals(1, reopened.size());
+        }
+    }
+
+    @Test
+    void testIgnoresIndexOfAnotherTarget() throws Exception {
+        final Path file = tempDir.resolve("target.index");
+        try (TargetIndex index = TargetIndex.open(file, "bucket/dst/")) {
+            index.put("dst/a.txt", "\"etag-a\"", 10);
+        }
+
+        try (TargetIndex other = TargetIndex.open(file, "other-bucket/dst/")) {
+            assertNull(other.get("dst/a.txt"));
+            assertTrue(other.needsReconcile(Duration.ofHours(24)));
+        }
+    }
+
+    @Test
+    void testReconcileReplacesEntriesWithTargetListing() throws Exception {
+        final S3Client targetClient = mock(S3Client.class);
+        final Instant modified = Instant.parse("2024-01-01T00:00:00Z");
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("dst/kept.txt").eTag("\"multipart-2\"").size(10L).lastModified(modified).build(),
+                        S3Object.builder().key("dst/resized.txt").eTag("\"target\"").size(99L).lastModified(modified).build(),
+                        S3Object.builder().key("dst/unknown.txt").eTag("\"unknown\"").size(5L).lastModified(modified).build())
+                .isTruncated(false)
+                .build());
+        final Path file = tempDir.resolve("target.index");
+
+        try (TargetIndex index = TargetIndex.open(file, "bucket/dst/")) {
+            index.put("dst/kept.txt", "\"source\"", 10);
+            index.put("dst/resized.txt", "\"source\"", 20);
+            index.put("dst/deleted.txt", "\"source\"", 30);
+            assertTrue(index.needsReconcile(Duration.ofHours(24)));
+            Thread.sleep(5);
+
+            index.reconcile(targetClient, "bucket", "dst/");
+
+            assertFalse(index.needsReconcile(Duration.ofHours(24)));
+            assertEquals("\"source\"", index.get("dst/kept.txt").eTag());
+            assertEquals("\"target\"", index.get("dst/resized.txt").eTag());
+            assertEquals(99, index.get("dst/resized.txt").size());
+            assertEquals(modified, index.get("dst/unknown.txt").copiedAt());
+            assertNull(index.get("dst/deleted.txt"));
+        }
+
+        try (TargetIndex reopened = TargetIndex.open(file, "bucket/dst/")) {
+            assertEquals(3, reopened.size());
+            assertFalse(reopened.needsReconcile(Duration.ofHours(24)));
+        }
+    }
+
+    @Test
+    void testReconcileRecordsSourceETagOfMultipartCopy() throws Exception {
+        final S3Client targetClient = mock(S3Client.class);
+        final Instant modified = Instant.parse("2024-01-01T00:00:00Z");
+        when(targetClient.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .contents(S3Object.builder().key("dst/copied.sst").eTag("\"abc-3\"").size(10L).lastModified(modified).build(),
+                        S3Object.builder().key("dst/foreign.sst").eTag("\"def-2\"").size(10L).lastModified(modified).build())
+                .isTruncated(false)
+                .build());
+        when(targetClient.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation ->
+                ((HeadObjectRequest) invocation.getArgument(0)).key().equals("dst/copied.sst")
+                        ? HeadObjectResponse.builder().metadata(Map.of(S3Copier.SOURCE_ETAG_METADATA, "\"source\"")).build()
+                        : HeadObjectResponse.builder().build());
+
+        try (TargetIndex index = TargetIndex.open(tempDir.resolve("target.index"), "bucket/dst/")) {
+            index.reconcile(targetClient, "bucket", "dst/");
+
+            assertEquals("\"source\"", index.get("dst/copied.sst").eTag());
+            assertEquals("\"def-2\"", index.get("dst/foreign.sst").eTag());
+        }
+    }
+}
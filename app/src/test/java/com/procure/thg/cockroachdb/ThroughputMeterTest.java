@@ -0,0 +1,24 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ThroughputMeterTest {
+
+    @Test
+    void testCountsObjectsAndBytes() throws Exception {
+        ThroughputMeter meter = new ThroughputMeter("source netty, target crt");
+        meter.record(1024 * 1024);
+        meter.record(3 * 1024 * 1024);
+        // Unknown sizes count as an object without bytes
+        meter.record(-1);
+        Thread.sleep(10);
+
+        assertEquals(3, meter.objectCount());
+        assertEquals(4 * 1024 * 1024, meter.byteCount());
+        assertTrue(meter.megabytesPerSecond() > 0);
+        meter.report();
+    }
+}
@@ -0,0 +1,123 @@
+package com.procure.thg.cockroachdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class WatermarkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private S3Client sourceClient;
+
+    @Mock
+    private S3Client targetClient;
+
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    void testSavesHighestObservedKey() {
+        final Path file = tempDir.resolve("watermark.properties");
+        final Watermark first = new Watermark(Checkpoint.localFile(file), "src/|dst/");
+        assertNull(first.startAfter());
+        first.observe("src/2025/10/14-220000.00/");
+        first.observe("src/2025/10/13-220000.00/");
+        first.save();
+
+        final Watermark resumed = new Watermark(Checkpoint.localFile(file), "src/|dst/");
+
+        assertEquals("src/2025/10/14-220000.00/", resumed.startAfter());
+    }
+
+    @Test
+    void testCopiesManifestWrittenAfterWatermark() {
+        final Instant now = Instant.now();
+        final String backup = "src/2025/10/14-220000.00/";
+        final List<S3Object> sourceObjects = new ArrayList<>();
+        sourceObjects.add(S3Object.builder().key(backup + "data/1.sst").lastModified(now.minusSeconds(60)).build());
+        // The listing honours StartAfter, as S3 does
+        when(sourceClient.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenAnswer(invocation -> {
+                    final String startAfter = ((ListObjectsV2Request) invocation.getArgument(0)).startAfter();
+                    return ListObjectsV2Response.builder()
+                            .contents(sourceObjects.stream()
+                                    .filter(object -> startAfter == null || object.key().compareTo(startAfter) > 0)
+                                    .sorted((a, b) -> a.key().compareTo(b.key()))
+                                    .collect(Collectors.toList()))
+                            .isTruncated(false)
+                            .build();
+                });
+        when(sourceClient.getObject(any(GetObjectRequest.class)))
+                .thenAnswer(invocation -> new ResponseInputStream<>(
+                        GetObjectResponse.builder().contentLength(7L).build(),
+                        new ByteArrayInputStream("content".getBytes())));
+        when(targetClient.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(NoSuchKeyException.builder().message("Object not found").build());
+        final Path file = tempDir.resolve("watermark.properties");
+        final DatePartitionFilter layout = new DatePartitionFilter("yyyy/MM/dd", now, DatePartitionFilter.Direction.NEWER);
+
+        new S3Copier(sourceClient, "source", "src", targetClient, "target", "dst", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "src|dst"), layout)
+                .copyRecentObjects(3600);
+        // CockroachDB writes the manifest last, and it sorts before data/
+        sourceObjects.add(S3Object.builder().key(backup + "BACKUP_MANIFEST").lastModified(now).build());
+        new S3Copier(sourceClient, "source", "src", targetClient, "target", "dst", false)
+                .withWatermark(new Watermark(Checkpoint.localFile(file), "src|dst"), layout)
+                .copyRecentObjects(3600);
+
+        assertEquals(backup, new Watermark(Checkpoint.localFile(file), "src|dst").startAfter());
+        verify(targetClient, times(1)).putObject(
+                eq(PutObjectRequest.builder().bucket("target").key("dst/2025/10/14-220000.00/BACKUP_MANIFEST").build()),
+                (RequestBody) any());
+    }
+
+    @Test
+    void testIgnoresWatermarkWithDifferentParameters() {
+        final Path file = tempDir.resolve("watermark.properties");
+        final Watermark first = new Watermark(Checkpoint.localFile(file), "src/|dst/");
+        first.observe("src/a.sst");
+        first.save();
+
+        assertNull(new Watermark(Checkpoint.localFile(file), "src/|other/").startAfter());
+    }
+}